@@ -0,0 +1,120 @@
+package com.example.vault.bench;
+
+import com.example.vault.cli.Commands;
+import com.example.vault.crypto.DekCache;
+import com.example.vault.metrics.VaultMetrics;
+import com.example.vault.server.ApiController;
+import com.example.vault.storage.SecretRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole requests through an unsealed {@link ApiController}: policy check, store access, DEK
+ * wrap or unwrap and the secret's encryption. The store holds {@code secrets} real encrypted
+ * secrets and the policy file 100 fingerprints; {@code dekCacheSize} 0 unwraps on every read, and
+ * {@code metrics} compares the request with and without latency instrumentation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ApiControllerBenchmark {
+    private static final int POLICIES = 100;
+    private static final int LOAD_BATCH = 1000;
+
+    @Param({"10000"})
+    public int secrets;
+
+    @Param({"0", "10000"})
+    public int dekCacheSize;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private Path directory;
+    private SecretRepository repository;
+    private ApiController apiController;
+    private ApiController.RequestContext context;
+    private String[] paths;
+    private String value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GeneralSecurityException {
+        directory = Files.createTempDirectory("vault-bench-api");
+        Path policies = Fixtures.writePolicies(directory, POLICIES);
+        repository = new SecretRepository(directory.resolve("store"));
+        apiController = Commands.createController(repository, policies, Fixtures.PASSPHRASE.toCharArray(),
+                new DekCache(dekCacheSize, Duration.ofMinutes(10)),
+                metrics ? VaultMetrics.enabled() : VaultMetrics.disabled());
+        context = new ApiController.RequestContext(Fixtures.fingerprint(0));
+        value = Fixtures.payload(32);
+        paths = new String[secrets];
+        List<ApiController.Op> batch = new ArrayList<>(LOAD_BATCH);
+        for (int i = 0; i < secrets; i++) {
+            paths[i] = Fixtures.secretPath(i);
+            batch.add(new ApiController.Op.Put(paths[i], value));
+            if (batch.size() == LOAD_BATCH || i == secrets - 1) {
+                apiController.apply(batch, context);
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        apiController.seal();
+        repository.close();
+        Fixtures.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public String getSecret() throws IOException, GeneralSecurityException {
+        return apiController.getSecret(randomPath(), context);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String getSecretContended() throws IOException, GeneralSecurityException {
+        return apiController.getSecret(randomPath(), context);
+    }
+
+    @Benchmark
+    public void putSecret() throws IOException, GeneralSecurityException {
+        apiController.putSecret(randomPath(), value, context);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void putSecretContended() throws IOException, GeneralSecurityException {
+        apiController.putSecret(randomPath(), value, context);
+    }
+
+    private String randomPath() {
+        return paths[ThreadLocalRandom.current().nextInt(secrets)];
+    }
+}
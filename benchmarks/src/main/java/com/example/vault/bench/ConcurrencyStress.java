@@ -0,0 +1,190 @@
+package com.example.vault.bench;
+
+import com.example.vault.storage.SecretRecord;
+import com.example.vault.storage.SecretRepository;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stress run for concurrent writers: several processes with several threads each save the same
+ * shared path, and each thread also its own path, against one store. Afterwards every path must be
+ * at exactly the version its number of writes gives; a lost update shows as a lower version.
+ *
+ * <p>The run is made twice. In {@code group} mode the threads call {@link SecretRepository#save}
+ * directly and share group commits; in {@code global} mode every save in a process is taken under
+ * one lock, which is what a single global store lock amounts to (processes already serialize on
+ * the store's lock file). Throughput of both is printed side by side.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.example.vault.bench.ConcurrencyStress \
+ *   [--processes=3] [--threads=8] [--writes=100]
+ * </pre>
+ *
+ * Exits with status 1 when any write was lost.
+ */
+public final class ConcurrencyStress {
+    private static final String SHARED_PATH = "stress/shared";
+    private static final long START_DELAY_MILLIS = 2000;
+    private static final String ELAPSED = "elapsed ";
+
+    private ConcurrencyStress() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("worker")) {
+            worker(Path.of(args[1]), args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+                    Integer.parseInt(args[5]), Long.parseLong(args[6]));
+            return;
+        }
+        int processes = 3;
+        int threads = 8;
+        int writes = 100;
+        for (String argument : args) {
+            if (argument.startsWith("--processes=")) {
+                processes = Integer.parseInt(argument.substring("--processes=".length()));
+            } else if (argument.startsWith("--threads=")) {
+                threads = Integer.parseInt(argument.substring("--threads=".length()));
+            } else if (argument.startsWith("--writes=")) {
+                writes = Integer.parseInt(argument.substring("--writes=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + argument);
+            }
+        }
+        boolean lost = false;
+        double[] throughput = new double[2];
+        String[] modes = {"group", "global"};
+        for (int i = 0; i < modes.length; i++) {
+            Run run = run(modes[i], processes, threads, writes);
+            throughput[i] = run.writesPerSecond();
+            lost |= !run.consistent();
+            System.out.printf("%-6s %2d processes x %2d threads x %4d writes: %8.0f writes/s, %s%n", modes[i],
+                    processes, threads, writes, run.writesPerSecond(),
+                    run.consistent() ? "no lost writes" : "LOST WRITES");
+        }
+        System.out.printf("group commit vs global lock: %.2fx%n", throughput[0] / throughput[1]);
+        if (lost) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs one mode against a fresh store and checks the versions it ended at.
+     */
+    private static Run run(String mode, int processes, int threads, int writes) throws Exception {
+        Path directory = Files.createTempDirectory("vault-stress");
+        try {
+            Path store = directory.resolve("store");
+            new SecretRepository(store).close();
+            long startAt = System.currentTimeMillis() + START_DELAY_MILLIS;
+            List<Process> workers = new ArrayList<>(processes);
+            for (int p = 0; p < processes; p++) {
+                workers.add(new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"), ConcurrencyStress.class.getName(),
+                        "worker", store.toString(), mode, Integer.toString(p), Integer.toString(threads),
+                        Integer.toString(writes), Long.toString(startAt))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+            long slowestNanos = 0;
+            for (Process worker : workers) {
+                try (BufferedReader output = new BufferedReader(
+                        new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = output.readLine()) != null) {
+                        if (line.startsWith(ELAPSED)) {
+                            slowestNanos = Math.max(slowestNanos, Long.parseLong(line.substring(ELAPSED.length())));
+                        }
+                    }
+                }
+                if (worker.waitFor() != 0) {
+                    throw new IllegalStateException("Worker failed with status " + worker.exitValue());
+                }
+            }
+            boolean consistent;
+            try (SecretRepository repository = new SecretRepository(store)) {
+                consistent = version(repository, SHARED_PATH) == processes * threads * writes;
+                for (int p = 0; p < processes; p++) {
+                    for (int t = 0; t < threads; t++) {
+                        consistent &= version(repository, ownPath(p, t)) == writes;
+                    }
+                }
+            }
+            long total = 2L * processes * threads * writes;
+            return new Run(total * 1e9 / slowestNanos, consistent);
+        } finally {
+            Fixtures.deleteRecursively(directory);
+        }
+    }
+
+    private static void worker(Path store, String mode, int process, int threads, int writes, long startAt)
+            throws Exception {
+        ReentrantLock global = mode.equals("global") ? new ReentrantLock() : null;
+        try (SecretRepository repository = new SecretRepository(store)) {
+            List<Thread> writers = new ArrayList<>(threads);
+            List<Throwable> failures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String own = ownPath(process, t);
+                SplittableRandom random = new SplittableRandom(process * 1000L + t);
+                writers.add(new Thread(() -> {
+                    try {
+                        for (int i = 0; i < writes; i++) {
+                            save(repository, global, Fixtures.record(SHARED_PATH, random));
+                            save(repository, global, Fixtures.record(own, random));
+                        }
+                    } catch (IOException | RuntimeException exception) {
+                        synchronized (failures) {
+                            failures.add(exception);
+                        }
+                    }
+                }));
+            }
+            Thread.sleep(Math.max(0, startAt - System.currentTimeMillis()));
+            long started = System.nanoTime();
+            for (Thread writer : writers) {
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            System.out.println(ELAPSED + (System.nanoTime() - started));
+            if (!failures.isEmpty()) {
+                failures.get(0).printStackTrace();
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void save(SecretRepository repository, ReentrantLock global, SecretRecord record)
+            throws IOException {
+        if (global == null) {
+            repository.save(record);
+            return;
+        }
+        global.lock();
+        try {
+            repository.save(record);
+        } finally {
+            global.unlock();
+        }
+    }
+
+    private static int version(SecretRepository repository, String path) throws IOException {
+        return repository.get(path).map(SecretRecord::version).orElse(0);
+    }
+
+    private static String ownPath(int process, int thread) {
+        return "stress/p" + process + "/t" + thread;
+    }
+
+    private record Run(double writesPerSecond, boolean consistent) {
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.vault.bench;
+
+import com.example.vault.crypto.CryptoEngine;
+import com.example.vault.crypto.DekService;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AES-256-GCM through the string API that {@code ApiController} uses, at payload sizes from a
+ * password up to a bundled certificate chain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoEngineBenchmark {
+    @Param({"32", "1024", "65536", "1048576"})
+    public int payloadBytes;
+
+    private final CryptoEngine cryptoEngine = new CryptoEngine();
+    private SecretKey dek;
+    private String secret;
+    private CryptoEngine.EncryptedSecret encrypted;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        dek = new DekService().generateDek();
+        secret = Fixtures.payload(payloadBytes);
+        encrypted = cryptoEngine.encryptSecret(secret, dek);
+    }
+
+    @Benchmark
+    public CryptoEngine.EncryptedSecret encrypt() throws GeneralSecurityException {
+        return cryptoEngine.encryptSecret(secret, dek);
+    }
+
+    @Benchmark
+    public String decrypt() throws GeneralSecurityException {
+        return cryptoEngine.decryptSecret(encrypted, dek);
+    }
+}
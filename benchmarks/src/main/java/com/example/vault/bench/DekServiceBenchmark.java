@@ -0,0 +1,54 @@
+package com.example.vault.bench;
+
+import com.example.vault.crypto.DekService;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DekServiceBenchmark {
+    private final DekService dekService = new DekService();
+    private SecretKey masterKey;
+    private SecretKey dek;
+    private DekService.WrappedDek wrapped;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        masterKey = dekService.generateDek();
+        dek = dekService.generateDek();
+        wrapped = dekService.wrapDek(dek, masterKey);
+    }
+
+    @Benchmark
+    public SecretKey generate() {
+        return dekService.generateDek();
+    }
+
+    @Benchmark
+    public DekService.WrappedDek wrap() throws GeneralSecurityException {
+        return dekService.wrapDek(dek, masterKey);
+    }
+
+    @Benchmark
+    public SecretKey unwrap() throws GeneralSecurityException {
+        return dekService.unwrapDek(wrapped, masterKey);
+    }
+}
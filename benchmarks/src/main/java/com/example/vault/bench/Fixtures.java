@@ -0,0 +1,117 @@
+package com.example.vault.bench;
+
+import com.example.vault.storage.SecretRecord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Shared setup for the benchmarks: store layouts, fake records and policy files.
+ */
+final class Fixtures {
+    static final String PASSPHRASE = "benchmark-passphrase";
+    static final int SECRETS_PER_SERVICE = 100;
+
+    private Fixtures() {
+    }
+
+    /**
+     * The path of the {@code index}th secret; every service holds {@value #SECRETS_PER_SERVICE}
+     * secrets, so listing one service returns the same number of paths at every store size.
+     */
+    static String secretPath(int index) {
+        return service(index / SECRETS_PER_SERVICE) + "/secret-" + (index % SECRETS_PER_SERVICE);
+    }
+
+    static String service(int service) {
+        return "svc-" + service;
+    }
+
+    /**
+     * A record with the field sizes of a real 32-byte secret, filled with random bytes instead of
+     * actual ciphertext.
+     */
+    static SecretRecord record(String path, SplittableRandom random) {
+        Instant now = Instant.now();
+        return new SecretRecord(path, bytes(random, 48), bytes(random, 12), bytes(random, 12), bytes(random, 48), 1,
+                now, now);
+    }
+
+    static String fingerprint(int index) {
+        byte[] digest = new byte[32];
+        new SplittableRandom(index).nextBytes(digest);
+        return HexFormat.of().withUpperCase().formatHex(digest);
+    }
+
+    /**
+     * Writes a policy file with one entry per fingerprint. Entry {@code i} may read a handful of
+     * its own team's paths, shared prefixes and the benchmark services, and write to its staging and
+     * CI paths and the services.
+     */
+    static Path writePolicies(Path directory, int count) throws IOException {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < count; i++) {
+            String team = "team-" + i;
+            json.append("  {\n")
+                    .append("    \"fingerprint\": \"").append(fingerprint(i)).append("\",\n")
+                    .append("    \"permissions\": {\n")
+                    .append("      \"read\": [")
+                    .append(quoted(List.of(team + "/prod/*", team + "/staging/*", team + "/ci/*/token",
+                            "shared/" + team + "/*", "shared/common/*", "svc-*")))
+                    .append("],\n")
+                    .append("      \"write\": [")
+                    .append(quoted(List.of(team + "/staging/*", team + "/ci/*", "svc-*")))
+                    .append("]\n")
+                    .append("    }\n")
+                    .append("  }").append(i + 1 < count ? "," : "").append('\n');
+        }
+        json.append("]\n");
+        Path policies = directory.resolve("policies.json");
+        Files.writeString(policies, json);
+        return policies;
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    static String payload(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        SplittableRandom random = new SplittableRandom(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        return builder.toString();
+    }
+
+    private static String quoted(List<String> values) {
+        StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append('"').append(value).append('"');
+        }
+        return builder.toString();
+    }
+
+    private static byte[] bytes(SplittableRandom random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
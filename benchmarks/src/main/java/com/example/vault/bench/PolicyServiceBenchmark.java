@@ -0,0 +1,79 @@
+package com.example.vault.bench;
+
+import com.example.vault.server.PolicyService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Authorization checks against a policy file with {@code policies} fingerprints, each holding a
+ * few globs over its own team's paths and some shared ones. {@code maxDecisions} 0 evaluates the
+ * globs on every check; otherwise repeated checks are answered from the decision cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PolicyServiceBenchmark {
+    @Param({"10", "100", "1000"})
+    public int policies;
+
+    @Param({"0", "10000"})
+    public int maxDecisions;
+
+    private Path directory;
+    private PolicyService policyService;
+    private String fingerprint;
+    private String unknownFingerprint;
+    private String allowedPath;
+    private String deniedPath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("vault-bench-policies");
+        policyService = new PolicyService(Fixtures.writePolicies(directory, policies), maxDecisions,
+                PolicyService.DEFAULT_RELOAD_INTERVAL);
+        fingerprint = Fixtures.fingerprint(policies / 2);
+        unknownFingerprint = Fixtures.fingerprint(policies + 1);
+        allowedPath = "team-" + (policies / 2) + "/ci/deploy/token";
+        deniedPath = "team-" + (policies / 2) + "/ci/deploy/password";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public boolean canReadAllowed() {
+        return policyService.canRead(fingerprint, allowedPath);
+    }
+
+    @Benchmark
+    public boolean canReadDenied() {
+        return policyService.canRead(fingerprint, deniedPath);
+    }
+
+    @Benchmark
+    public boolean canReadUnknownFingerprint() {
+        return policyService.canRead(unknownFingerprint, "shared/common/ca-bundle");
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.vault.bench;
+
+import com.example.vault.storage.SecretRecord;
+import com.example.vault.storage.SecretRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Store operations against a segment log pre-filled with {@code secrets} records. Paths are
+ * grouped into services of {@value Fixtures#SECRETS_PER_SERVICE}, so {@code list} and
+ * {@code listKeys} return the same amount at every size and only the cost of finding it grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SecretRepositoryBenchmark {
+    private static final int LOAD_BATCH = 1000;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int secrets;
+
+    private Path directory;
+    private SecretRepository repository;
+    private String[] paths;
+    private SecretRecord[] replacements;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("vault-bench-store");
+        repository = new SecretRepository(directory.resolve("store"));
+        paths = new String[secrets];
+        SplittableRandom random = new SplittableRandom(secrets);
+        List<SecretRecord> batch = new ArrayList<>(LOAD_BATCH);
+        for (int i = 0; i < secrets; i++) {
+            paths[i] = Fixtures.secretPath(i);
+            batch.add(Fixtures.record(paths[i], random));
+            if (batch.size() == LOAD_BATCH || i == secrets - 1) {
+                repository.commit(batch, List.of());
+                batch.clear();
+            }
+        }
+        replacements = new SecretRecord[1024];
+        for (int i = 0; i < replacements.length; i++) {
+            replacements[i] = Fixtures.record(paths[random.nextInt(secrets)], random);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        Fixtures.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public Optional<SecretRecord> get() throws IOException {
+        return repository.get(paths[ThreadLocalRandom.current().nextInt(secrets)]);
+    }
+
+    /**
+     * One durable overwrite; with a single caller every save pays its own fsync.
+     */
+    @Benchmark
+    public void save() throws IOException {
+        repository.save(replacements[ThreadLocalRandom.current().nextInt(replacements.length)]);
+    }
+
+    /**
+     * Overwrites from eight threads at once, which the group-commit writer folds into shared
+     * fsyncs.
+     */
+    @Benchmark
+    @Threads(8)
+    public void saveContended() throws IOException {
+        repository.save(replacements[ThreadLocalRandom.current().nextInt(replacements.length)]);
+    }
+
+    @Benchmark
+    public List<String> list() throws IOException {
+        return repository.list(randomService() + "/");
+    }
+
+    @Benchmark
+    public List<String> listKeys() throws IOException {
+        return repository.listKeys(randomService());
+    }
+
+    private String randomService() {
+        return Fixtures.service(ThreadLocalRandom.current().nextInt(secrets / Fixtures.SECRETS_PER_SERVICE));
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.vault.audit;
+
+import com.example.vault.metrics.Operation;
+
+import java.util.Locale;
+
+/**
+ * One request as the audit log records it: who ({@code fingerprint}) ran which operation on
+ * which path, the version it read or wrote (0 when there is none), how it ended and how long it
+ * took. {@code time} is the wall clock in epoch milliseconds when the request started.
+ */
+public record AuditEvent(long time, String fingerprint, Operation operation, String path, int version,
+        Outcome outcome, long latencyNanos) {
+
+    public enum Outcome {
+        /** The request was allowed and completed. */
+        ALLOWED,
+        /** The caller's policy does not allow the request. */
+        DENIED,
+        /** The caller was over a rate limit of its policy. */
+        THROTTLED,
+        /** The request was allowed but failed, for example because the secret does not exist. */
+        FAILED;
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.example.vault.audit;
+
+import com.example.vault.metrics.Operation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append-only record of every request, one JSON object per line:
+ *
+ * <pre>
+ * {"seq":7,"time":"2026-10-16T09:12:44.120Z","fingerprint":"9A31F4...","operation":"get",
+ *  "path":"db/prod/password","version":3,"outcome":"allowed","latencyMicros":412,"hash":"5f0c..."}
+ * </pre>
+ *
+ * <p>The lines form a hash chain: {@code hash} is the SHA-256 of the previous line's hash followed
+ * by this line up to, not including, {@code ,"hash":}; the first line chains from 32 zero bytes.
+ * Changing, removing or reordering a line breaks the link after it, which {@link AuditVerifier}
+ * finds. Cutting lines off the end does not, so the head the verifier reports has to be kept
+ * somewhere the log's host cannot write.
+ *
+ * <p>Requests never touch the file. {@link #begin} hands out an {@link Entry} that queues its event
+ * in a bounded ring buffer when the request ends, and a single writer thread takes everything
+ * queued, chains it and appends it with one write and one fsync. When the buffer is full a
+ * request waits or drops its event, as {@link AuditSettings} says. Dropped events are counted, and
+ * the writer adds a {@code {"seq":...,"time":...,"dropped":N,"hash":...}} line to the chain so the
+ * gap shows in the log itself.
+ */
+public final class AuditLog implements Closeable {
+    static final int HASH_BYTES = 32;
+    static final byte[] HASH_FIELD = ",\"hash\":\"".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Bytes after the hashed part of a line, not counting the newline: the hash field, the hash in
+     * hex and the closing {@code "}}.
+     */
+    static final int TRAILER_BYTES = HASH_FIELD.length + 2 * HASH_BYTES + 2;
+
+    private static final String SEQUENCE_FIELD = "{\"seq\":";
+    private static final int TAIL_BLOCK = 8192;
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+    private static final AuditEvent STOP = new AuditEvent(0, "", Operation.GET, "", 0,
+            AuditEvent.Outcome.ALLOWED, 0);
+    private static final AuditLog DISABLED = new AuditLog(null, null, AuditSettings.DEFAULT, 0, null);
+    private static final Entry NO_ENTRY = new Entry(null, null, null, null, null);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final AuditSettings settings;
+    private final BlockingQueue<AuditEvent> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final MessageDigest digest;
+    private long sequence;
+    private byte[] head;
+    private long reportedDrops;
+    private long formattedTime = -1;
+    private String formatted;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private AuditLog(Path file, FileChannel channel, AuditSettings settings, long sequence, byte[] head) {
+        this.file = file;
+        this.channel = channel;
+        this.settings = settings;
+        this.sequence = sequence;
+        this.head = head;
+        if (channel == null) {
+            this.queue = null;
+            this.digest = null;
+            this.writer = null;
+            return;
+        }
+        this.queue = new ArrayBlockingQueue<>(settings.capacity());
+        this.digest = sha256();
+        this.writer = new Thread(this::run, "vault-audit");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens the audit log at {@code file} for appending, creating it if needed, and continues the
+     * chain from its last line. A last line cut short by a crash is removed first; it was never
+     * part of the chain. The file stays locked until {@link #close()}.
+     */
+    public static AuditLog open(Path file, AuditSettings settings) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() == null) {
+                throw new IOException("Audit log is in use: " + file);
+            }
+            long end = channel.size();
+            long complete = lastNewline(channel, end) + 1;
+            if (complete < end) {
+                channel.truncate(complete);
+            }
+            long sequence = 0;
+            byte[] head = new byte[HASH_BYTES];
+            if (complete > 0) {
+                long start = lastNewline(channel, complete - 1) + 1;
+                ByteBuffer last = ByteBuffer.allocate(Math.toIntExact(complete - 1 - start));
+                readFully(channel, last, start);
+                byte[] line = last.array();
+                if (!isLine(line, 0, line.length)) {
+                    throw new IOException("Not an audit log: " + file);
+                }
+                sequence = sequence(line);
+                head = HexFormat.of().parseHex(new String(line, line.length - TRAILER_BYTES + HASH_FIELD.length,
+                        2 * HASH_BYTES, StandardCharsets.US_ASCII));
+            }
+            channel.position(complete);
+            return new AuditLog(file, channel, settings, sequence, head);
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            if (exception instanceof OverlappingFileLockException) {
+                throw new IOException("Audit log is in use: " + file);
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * An audit log that records nothing; {@link #begin} does not even read the clock.
+     */
+    public static AuditLog disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return channel != null;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * How many events were dropped so far because the buffer was full, the log was closed or the
+     * file could not be written.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Starts the record of one request for {@code path}.
+     */
+    public Entry begin(Operation operation, String fingerprint, String path) {
+        return channel == null ? NO_ENTRY : new Entry(this, operation, fingerprint, path, null);
+    }
+
+    /**
+     * Starts the record of one request touching every path in {@code paths}; it is logged as one
+     * line per path.
+     */
+    public Entry begin(Operation operation, String fingerprint, List<String> paths) {
+        return channel == null ? NO_ENTRY : new Entry(this, operation, fingerprint, null, List.copyOf(paths));
+    }
+
+    /**
+     * Writes out everything queued so far and closes the file. Events of requests still running
+     * are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(STOP);
+                break;
+            } catch (InterruptedException exception) {
+                interrupted = true;
+            }
+        }
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException exception) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * Whether the {@code length} bytes at {@code start} have the shape of a log line: the sequence
+     * field first and the hash field last. Whether the hash is right is another matter.
+     */
+    static boolean isLine(byte[] buffer, int start, int length) {
+        int end = start + length;
+        if (length < SEQUENCE_FIELD.length() + TRAILER_BYTES || buffer[end - 2] != '"' || buffer[end - 1] != '}') {
+            return false;
+        }
+        for (int i = 0; i < SEQUENCE_FIELD.length(); i++) {
+            if (buffer[start + i] != SEQUENCE_FIELD.charAt(i)) {
+                return false;
+            }
+        }
+        int hashField = end - TRAILER_BYTES;
+        for (int i = 0; i < HASH_FIELD.length; i++) {
+            if (buffer[hashField + i] != HASH_FIELD[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("SHA-256 is not available", exception);
+        }
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Audit log ended at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static long sequence(byte[] line) throws IOException {
+        long sequence = 0;
+        int i = SEQUENCE_FIELD.length();
+        while (i < line.length && line[i] >= '0' && line[i] <= '9') {
+            sequence = sequence * 10 + (line[i++] - '0');
+        }
+        if (i == SEQUENCE_FIELD.length() || i == line.length || line[i] != ',') {
+            throw new IOException("Invalid sequence number in audit log");
+        }
+        return sequence;
+    }
+
+    /**
+     * The position of the last newline before {@code before}, or -1 when there is none.
+     */
+    private static long lastNewline(FileChannel channel, long before) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(TAIL_BLOCK);
+        long end = before;
+        while (end > 0) {
+            long start = Math.max(0, end - TAIL_BLOCK);
+            block.clear().limit((int) (end - start));
+            readFully(channel, block, start);
+            for (int i = block.limit() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n') {
+                    return start + i;
+                }
+            }
+            end = start;
+        }
+        return -1;
+    }
+
+    private void submit(AuditEvent event) {
+        if (closed || failure != null) {
+            dropped.increment();
+            return;
+        }
+        if (settings.overflow() == AuditSettings.Overflow.DROP) {
+            if (!queue.offer(event)) {
+                dropped.increment();
+            }
+            return;
+        }
+        try {
+            while (!queue.offer(event, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (closed || failure != null) {
+                    dropped.increment();
+                    return;
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            dropped.increment();
+        }
+    }
+
+    private void run() {
+        List<AuditEvent> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException exception) {
+                continue;
+            }
+            queue.drainTo(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i) == STOP) {
+                    batch.subList(i, batch.size()).clear();
+                    stopping = true;
+                    break;
+                }
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Chains {@code batch} onto the log and appends it with one write and one fsync. After a
+     * failed write nothing more is written, since the chain on disk no longer matches the one in
+     * memory; later events count as dropped.
+     */
+    private void write(List<AuditEvent> batch) {
+        if (failure != null) {
+            dropped.add(batch.size());
+            return;
+        }
+        output.reset();
+        long lost = dropped.sum();
+        if (lost > reportedDrops) {
+            append(line(System.currentTimeMillis()).append(",\"dropped\":").append(lost - reportedDrops));
+            reportedDrops = lost;
+        }
+        for (AuditEvent event : batch) {
+            append(line(event));
+        }
+        if (output.size() == 0) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(output.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException exception) {
+            failure = exception;
+            dropped.add(batch.size());
+            System.err.println("Audit log write failed, dropping further events: " + exception.getMessage());
+        }
+    }
+
+    private StringBuilder line(AuditEvent event) {
+        StringBuilder line = line(event.time());
+        line.append(",\"fingerprint\":");
+        quote(line, event.fingerprint());
+        line.append(",\"operation\":\"").append(event.operation().label()).append('"');
+        line.append(",\"path\":");
+        quote(line, event.path());
+        line.append(",\"version\":").append(event.version());
+        line.append(",\"outcome\":\"").append(event.outcome().label()).append('"');
+        line.append(",\"latencyMicros\":").append(event.latencyNanos() / 1000);
+        return line;
+    }
+
+    private StringBuilder line(long time) {
+        return new StringBuilder(256)
+                .append(SEQUENCE_FIELD).append(++sequence)
+                .append(",\"time\":\"").append(format(time)).append('"');
+    }
+
+    /**
+     * Formats {@code time}, reusing the last result: events written together mostly share their
+     * millisecond, and formatting an instant costs more than chaining the line.
+     */
+    private String format(long time) {
+        if (time != formattedTime) {
+            formatted = Instant.ofEpochMilli(time).toString();
+            formattedTime = time;
+        }
+        return formatted;
+    }
+
+    private void append(StringBuilder body) {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        digest.update(head);
+        digest.update(bytes);
+        head = digest.digest();
+        output.writeBytes(bytes);
+        output.writeBytes(HASH_FIELD);
+        output.writeBytes(HexFormat.of().formatHex(head).getBytes(StandardCharsets.US_ASCII));
+        output.write('"');
+        output.write('}');
+        output.write('\n');
+    }
+
+    private static void quote(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                default -> {
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * The audit record of one request in progress. The request reports what it learns as it goes
+     * and calls {@link #end()} when it is done, on every path out; only then is the event queued.
+     */
+    public static final class Entry {
+        private final AuditLog log;
+        private final Operation operation;
+        private final String fingerprint;
+        private final String path;
+        private final List<String> paths;
+        private final long time;
+        private final long started;
+        private int version;
+        private AuditEvent.Outcome outcome = AuditEvent.Outcome.ALLOWED;
+
+        private Entry(AuditLog log, Operation operation, String fingerprint, String path, List<String> paths) {
+            this.log = log;
+            this.operation = operation;
+            this.fingerprint = fingerprint;
+            this.path = path;
+            this.paths = paths;
+            this.time = log == null ? 0 : System.currentTimeMillis();
+            this.started = log == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * The version of the secret the request read or wrote.
+         */
+        public void version(int version) {
+            this.version = version;
+        }
+
+        /**
+         * Marks the request as failed; a {@link SecurityException} is a denial.
+         */
+        public void failed(Throwable failure) {
+            outcome = failure instanceof SecurityException ? AuditEvent.Outcome.DENIED : AuditEvent.Outcome.FAILED;
+        }
+
+        /**
+         * Records the request as refused by a rate limit and ends it.
+         */
+        public void throttled() {
+            outcome = AuditEvent.Outcome.THROTTLED;
+            end();
+        }
+
+        public void end() {
+            if (log == null) {
+                return;
+            }
+            long latency = System.nanoTime() - started;
+            if (paths == null) {
+                log.submit(new AuditEvent(time, fingerprint, operation, path, version, outcome, latency));
+                return;
+            }
+            for (String each : paths) {
+                log.submit(new AuditEvent(time, fingerprint, operation, each, version, outcome, latency));
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.vault.audit;
+
+import java.util.Objects;
+
+/**
+ * Tuning for an {@link AuditLog}. Requests hand their events to a buffer of {@code capacity}
+ * events; {@code overflow} says what a request does when the writer has fallen that far behind.
+ */
+public record AuditSettings(int capacity, Overflow overflow) {
+    public static final AuditSettings DEFAULT = new AuditSettings(65_536, Overflow.BLOCK);
+
+    public AuditSettings {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        Objects.requireNonNull(overflow, "overflow");
+    }
+
+    public enum Overflow {
+        /** The request waits for room, so no event is lost but requests slow down with the disk. */
+        BLOCK,
+        /** The event is dropped and counted; the log records how many were lost at that point. */
+        DROP
+    }
+}
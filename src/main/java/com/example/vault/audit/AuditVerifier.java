@@ -0,0 +1,281 @@
+package com.example.vault.audit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the hash chain of an {@link AuditLog} file. Each line stores its own hash, so a link can
+ * be checked from the line before it alone: the file is cut into ranges at line boundaries, and
+ * the ranges are checked in parallel, each starting from the hash stored on the line in front of
+ * it. Since every line must match both its own content and its predecessor's stored hash, the
+ * ranges together check the whole chain from the first line on.
+ *
+ * <p>Only the bytes present when the check starts are read, so a log that is still being written
+ * can be verified; a last line without its newline yet is reported as incomplete, not broken.
+ */
+public final class AuditVerifier {
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final long MIN_RANGE_BYTES = 4L << 20;
+
+    private AuditVerifier() {
+    }
+
+    public static Result verify(Path file, int parallelism) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int ranges = (int) Math.max(1, Math.min(parallelism, size / MIN_RANGE_BYTES));
+            if (ranges == 1) {
+                return combine(List.of(check(channel, 0, size, size)));
+            }
+            return combine(checkInParallel(channel, size, ranges));
+        }
+    }
+
+    private static List<Range> checkInParallel(FileChannel channel, long size, int ranges) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(ranges, runnable -> {
+            Thread thread = new Thread(runnable, "vault-audit-verify");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Range>> checks = new ArrayList<>(ranges);
+            for (int i = 0; i < ranges; i++) {
+                long from = size * i / ranges;
+                long to = size * (i + 1) / ranges;
+                checks.add(pool.submit(() -> check(channel, from, to, size)));
+            }
+            List<Range> results = new ArrayList<>(ranges);
+            for (Future<Range> check : checks) {
+                results.add(check.get());
+            }
+            return results;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying the audit log");
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Result combine(List<Range> ranges) {
+        long entries = 0;
+        byte[] head = null;
+        long incomplete = 0;
+        for (Range range : ranges) {
+            if (range.brokenOffset() >= 0) {
+                return new Result(entries + range.entries(), hex(range.entries() > 0 ? range.head() : head),
+                        entries + range.entries() + 1, range.brokenOffset(), 0);
+            }
+            entries += range.entries();
+            if (range.entries() > 0) {
+                head = range.head();
+            }
+            incomplete = Math.max(incomplete, range.incompleteBytes());
+        }
+        return new Result(entries, hex(head), 0, -1, incomplete);
+    }
+
+    /**
+     * Checks the lines that start in {@code [from, to)}, reading no further than {@code size}.
+     */
+    private static Range check(FileChannel channel, long from, long to, long size) throws IOException {
+        Lines lines = new Lines(channel, from == 0 ? 0 : from - 1, size);
+        byte[] previous = new byte[AuditLog.HASH_BYTES];
+        if (from > 0) {
+            if (!lines.next()) {
+                return new Range(0, null, -1, 0);
+            }
+            previous = storedHashBefore(channel, lines.position());
+        }
+        MessageDigest digest = AuditLog.sha256();
+        long entries = 0;
+        while (lines.position() < to) {
+            long offset = lines.position();
+            if (!lines.next()) {
+                return new Range(entries, previous, -1, size - offset);
+            }
+            byte[] stored = link(digest, previous, lines.buffer(), lines.start(), lines.length());
+            if (stored == null) {
+                return new Range(entries, previous, offset, 0);
+            }
+            previous = stored;
+            entries++;
+        }
+        return new Range(entries, previous, -1, 0);
+    }
+
+    /**
+     * The hash stored on the line that ends just before {@code lineStart}, or {@code null} when
+     * that line is too short to hold one; then the range checking it reports it as broken.
+     */
+    private static byte[] storedHashBefore(FileChannel channel, long lineStart) throws IOException {
+        long hashStart = lineStart - 1 - 2 - 2 * AuditLog.HASH_BYTES;
+        if (hashStart < 0) {
+            return null;
+        }
+        ByteBuffer hash = ByteBuffer.allocate(2 * AuditLog.HASH_BYTES);
+        AuditLog.readFully(channel, hash, hashStart);
+        return parseHex(hash.array(), 0);
+    }
+
+    /**
+     * Returns the hash stored on the line if it is the hash of {@code previous} and the line's
+     * content, otherwise {@code null}.
+     */
+    private static byte[] link(MessageDigest digest, byte[] previous, byte[] buffer, int start, int length) {
+        if (previous == null || !AuditLog.isLine(buffer, start, length)) {
+            return null;
+        }
+        int body = length - AuditLog.TRAILER_BYTES;
+        byte[] stored = parseHex(buffer, start + body + AuditLog.HASH_FIELD.length);
+        if (stored == null) {
+            return null;
+        }
+        digest.update(previous);
+        digest.update(buffer, start, body);
+        return Arrays.equals(digest.digest(), stored) ? stored : null;
+    }
+
+    private static byte[] parseHex(byte[] buffer, int start) {
+        byte[] bytes = new byte[AuditLog.HASH_BYTES];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(buffer[start + 2 * i], 16);
+            int low = Character.digit(buffer[start + 2 * i + 1], 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    private static String hex(byte[] hash) {
+        return hash == null ? null : HexFormat.of().formatHex(hash);
+    }
+
+    /**
+     * The outcome of a check. {@code head} is the hash of the last good line ({@code null} when
+     * there is none); a broken chain gives the 1-based number and byte offset of the first line
+     * that does not link. {@code incompleteBytes} were left at the end without a newline.
+     */
+    public record Result(long entries, String head, long brokenLine, long brokenOffset, long incompleteBytes) {
+        public boolean intact() {
+            return brokenLine == 0;
+        }
+    }
+
+    private record Range(long entries, byte[] head, long brokenOffset, long incompleteBytes) {
+    }
+
+    /**
+     * Reads a range of the file line by line through one buffer, which grows for a line longer
+     * than itself.
+     */
+    private static final class Lines {
+        private final FileChannel channel;
+        private final long end;
+        private byte[] buffer = new byte[BUFFER_BYTES];
+        private long bufferPosition;
+        private int position;
+        private int limit;
+        private int start;
+        private int length;
+
+        private Lines(FileChannel channel, long from, long end) {
+            this.channel = channel;
+            this.bufferPosition = from;
+            this.end = end;
+        }
+
+        /**
+         * The file position of the next line.
+         */
+        long position() {
+            return bufferPosition + position;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        int start() {
+            return start;
+        }
+
+        int length() {
+            return length;
+        }
+
+        /**
+         * Moves to the next line, without its newline; returns false when no newline is left
+         * before the end.
+         */
+        boolean next() throws IOException {
+            int scan = position;
+            while (true) {
+                for (; scan < limit; scan++) {
+                    if (buffer[scan] == '\n') {
+                        start = position;
+                        length = scan - position;
+                        position = scan + 1;
+                        return true;
+                    }
+                }
+                int shifted = position;
+                if (!fill()) {
+                    return false;
+                }
+                scan -= shifted;
+            }
+        }
+
+        /**
+         * Moves the unread bytes to the front of the buffer and reads more after them.
+         */
+        private boolean fill() throws IOException {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            bufferPosition += position;
+            limit -= position;
+            position = 0;
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            long available = end - bufferPosition - limit;
+            if (available <= 0) {
+                return false;
+            }
+            ByteBuffer target = ByteBuffer.wrap(buffer, limit, (int) Math.min(buffer.length - limit, available));
+            int read = channel.read(target, bufferPosition + limit);
+            if (read <= 0) {
+                return false;
+            }
+            limit += read;
+            return true;
+        }
+    }
+}
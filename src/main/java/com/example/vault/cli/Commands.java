@@ -1,17 +1,28 @@
 package com.example.vault.cli;
 
+import com.example.vault.audit.AuditLog;
 import com.example.vault.crypto.CryptoEngine;
+import com.example.vault.crypto.DekCache;
 import com.example.vault.crypto.DekService;
 import com.example.vault.crypto.MasterKeyService;
+import com.example.vault.metrics.VaultMetrics;
 import com.example.vault.server.ApiController;
 import com.example.vault.server.AuthService;
 import com.example.vault.server.PolicyService;
+import com.example.vault.storage.ChangeFeed;
 import com.example.vault.storage.SecretRepository;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public class Commands {
     private final ApiController apiController;
@@ -24,17 +35,90 @@ public class Commands {
 
     public static Commands create(Path storePath, Path policiesPath, char[] passphrase)
             throws IOException, GeneralSecurityException {
-        SecretRepository repository = new SecretRepository(storePath);
+        return new Commands(createController(new SecretRepository(storePath), policiesPath, passphrase),
+                new AuthService());
+    }
+
+    /**
+     * Rotates the master key of the store at {@code storePath} to one derived from
+     * {@code newPassphrase}, re-wrapping DEKs on {@code parallelism} threads.
+     */
+    public static int rotate(Path storePath, char[] currentPassphrase, char[] newPassphrase, int parallelism)
+            throws IOException, GeneralSecurityException {
+        try (SecretRepository repository = new SecretRepository(storePath)) {
+            return new MasterKeyService(repository).rotate(currentPassphrase, newPassphrase, parallelism);
+        }
+    }
+
+    /**
+     * Writes a point-in-time snapshot of the store at {@code storePath} to {@code target}, encoding
+     * it on {@code parallelism} threads.
+     */
+    public static long backup(Path storePath, WritableByteChannel target, int parallelism) throws IOException {
+        try (SecretRepository repository = new SecretRepository(storePath)) {
+            return repository.backup(target, parallelism);
+        }
+    }
+
+    /**
+     * Restores a snapshot into the empty store at {@code storePath}, moving it to a master key
+     * derived from {@code newPassphrase} when that is not {@code null}.
+     */
+    public static long restore(Path storePath, ReadableByteChannel source, char[] passphrase, char[] newPassphrase,
+            int parallelism) throws IOException, GeneralSecurityException {
+        try (SecretRepository repository = new SecretRepository(storePath)) {
+            return new MasterKeyService(repository).restore(source, passphrase, newPassphrase, parallelism);
+        }
+    }
+
+    /**
+     * Removes blob files of the store at {@code storePath} that no version refers to any more and
+     * that are older than {@code grace}.
+     */
+    public static int sweepBlobs(Path storePath, Duration grace) throws IOException {
+        try (SecretRepository repository = new SecretRepository(storePath)) {
+            return repository.sweepBlobs(grace);
+        }
+    }
+
+    public static ApiController createController(SecretRepository repository, Path policiesPath, char[] passphrase)
+            throws IOException, GeneralSecurityException {
+        return createController(repository, policiesPath, passphrase, DekCache.disabled());
+    }
+
+    public static ApiController createController(SecretRepository repository,
+            Path policiesPath,
+            char[] passphrase,
+            DekCache dekCache) throws IOException, GeneralSecurityException {
+        return createController(repository, policiesPath, passphrase, dekCache, VaultMetrics.disabled());
+    }
+
+    public static ApiController createController(SecretRepository repository,
+            Path policiesPath,
+            char[] passphrase,
+            DekCache dekCache,
+            VaultMetrics metrics) throws IOException, GeneralSecurityException {
+        return createController(repository, policiesPath, passphrase, dekCache, metrics, AuditLog.disabled());
+    }
+
+    public static ApiController createController(SecretRepository repository,
+            Path policiesPath,
+            char[] passphrase,
+            DekCache dekCache,
+            VaultMetrics metrics,
+            AuditLog auditLog) throws IOException, GeneralSecurityException {
         MasterKeyService masterKeyService = new MasterKeyService(repository);
         masterKeyService.unseal(passphrase);
         PolicyService policyService = new PolicyService(policiesPath);
-        ApiController apiController = new ApiController(
+        return new ApiController(
                 repository,
                 masterKeyService,
                 new DekService(),
                 new CryptoEngine(),
-                policyService);
-        return new Commands(apiController, new AuthService());
+                policyService,
+                dekCache,
+                metrics,
+                auditLog);
     }
 
     public void put(Path certificatePath, String path, String secret)
@@ -43,12 +127,56 @@ public class Commands {
         apiController.putSecret(path, secret, new ApiController.RequestContext(fingerprint));
     }
 
+    public int put(Path certificatePath, String path, String secret, int expectedVersion)
+            throws IOException, GeneralSecurityException {
+        String fingerprint = authService.fingerprintForCertificate(certificatePath);
+        return apiController.putSecret(path, secret, expectedVersion, new ApiController.RequestContext(fingerprint));
+    }
+
     public String get(Path certificatePath, String path)
             throws IOException, GeneralSecurityException {
         String fingerprint = authService.fingerprintForCertificate(certificatePath);
         return apiController.getSecret(path, new ApiController.RequestContext(fingerprint));
     }
 
+    public String get(Path certificatePath, String path, int version)
+            throws IOException, GeneralSecurityException {
+        String fingerprint = authService.fingerprintForCertificate(certificatePath);
+        return apiController.getSecret(path, version, new ApiController.RequestContext(fingerprint));
+    }
+
+    public Optional<ApiController.Secret> getIfNewer(Path certificatePath, String path, int knownVersion)
+            throws IOException, GeneralSecurityException {
+        String fingerprint = authService.fingerprintForCertificate(certificatePath);
+        return apiController.getSecretIfNewer(path, knownVersion, new ApiController.RequestContext(fingerprint));
+    }
+
+    public void putBlob(Path certificatePath, String path, ReadableByteChannel source)
+            throws IOException, GeneralSecurityException {
+        String fingerprint = authService.fingerprintForCertificate(certificatePath);
+        apiController.putBlob(path, source, new ApiController.RequestContext(fingerprint));
+    }
+
+    public void getBlob(Path certificatePath, String path, WritableByteChannel target)
+            throws IOException, GeneralSecurityException {
+        String fingerprint = authService.fingerprintForCertificate(certificatePath);
+        try (ApiController.Blob blob = apiController.openBlob(path, new ApiController.RequestContext(fingerprint))) {
+            blob.transferTo(target);
+        }
+    }
+
+    public List<Integer> versions(Path certificatePath, String path)
+            throws IOException, GeneralSecurityException {
+        String fingerprint = authService.fingerprintForCertificate(certificatePath);
+        return apiController.listVersions(path, new ApiController.RequestContext(fingerprint));
+    }
+
+    public void retention(Path certificatePath, String prefix, int versions)
+            throws IOException, GeneralSecurityException {
+        String fingerprint = authService.fingerprintForCertificate(certificatePath);
+        apiController.setRetention(prefix, versions, new ApiController.RequestContext(fingerprint));
+    }
+
     public void delete(Path certificatePath, String path) throws IOException {
         String fingerprint;
         try {
@@ -78,4 +206,74 @@ public class Commands {
         }
         return apiController.listKeys(path, new ApiController.RequestContext(fingerprint));
     }
+
+    public ApiController.Page list(Path certificatePath, String prefix, String cursor, int limit) throws IOException {
+        return apiController.listSecrets(prefix, cursor, limit, context(certificatePath));
+    }
+
+    public ApiController.Page keys(Path certificatePath, String path, String cursor, int limit) throws IOException {
+        return apiController.listKeys(path, cursor, limit, context(certificatePath));
+    }
+
+    public Stream<String> streamList(Path certificatePath, String prefix) throws IOException {
+        return apiController.streamSecrets(prefix, context(certificatePath));
+    }
+
+    public Stream<String> streamKeys(Path certificatePath, String path) throws IOException {
+        return apiController.streamKeys(path, context(certificatePath));
+    }
+
+    public ChangeFeed.Batch watch(Path certificatePath, String prefix, long after, int limit, Duration wait)
+            throws IOException {
+        return apiController.watch(prefix, after, limit, wait, context(certificatePath));
+    }
+
+    public void apply(Path certificatePath, List<ApiController.Op> ops)
+            throws IOException, GeneralSecurityException {
+        String fingerprint = authService.fingerprintForCertificate(certificatePath);
+        apiController.apply(ops, new ApiController.RequestContext(fingerprint));
+    }
+
+    /**
+     * A session running commands for the certificate at {@code certificatePath}, which is
+     * fingerprinted once here.
+     */
+    public Session session(Path certificatePath, int parallelism) throws IOException, GeneralSecurityException {
+        String fingerprint = authService.fingerprintForCertificate(certificatePath);
+        return new Session(apiController, new ApiController.RequestContext(fingerprint), parallelism);
+    }
+
+    private ApiController.RequestContext context(Path certificatePath) throws IOException {
+        try {
+            return new ApiController.RequestContext(authService.fingerprintForCertificate(certificatePath));
+        } catch (GeneralSecurityException exception) {
+            throw new IOException("Unable to read certificate fingerprint", exception);
+        }
+    }
+
+    /**
+     * Reads batch operations, one per line: {@code put <path> <value>} or {@code delete <path>}.
+     * The value is the rest of the line; blank lines and lines starting with {@code #} are skipped.
+     */
+    public static List<ApiController.Op> parseOps(BufferedReader reader) throws IOException {
+        List<ApiController.Op> ops = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.strip();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] parts = trimmed.split("\\s+", 3);
+            if (parts[0].equals("put") && parts.length == 3) {
+                ops.add(new ApiController.Op.Put(parts[1], parts[2]));
+            } else if (parts[0].equals("delete") && parts.length == 2) {
+                ops.add(new ApiController.Op.Delete(parts[1]));
+            } else {
+                throw new IOException("Invalid operation on line " + lineNumber + ": " + trimmed);
+            }
+        }
+        return ops;
+    }
 }
@@ -1,13 +1,56 @@
 package com.example.vault.cli;
 
+import com.example.vault.audit.AuditLog;
+import com.example.vault.audit.AuditSettings;
+import com.example.vault.audit.AuditVerifier;
+import com.example.vault.crypto.DekCache;
+import com.example.vault.metrics.StatsReport;
+import com.example.vault.metrics.VaultMetrics;
+import com.example.vault.server.ApiController;
+import com.example.vault.server.AuthService;
+import com.example.vault.server.VaultServer;
+import com.example.vault.storage.ChangeFeed;
+import com.example.vault.storage.SecretRepository;
+import com.example.vault.storage.VersionConflictException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import javax.management.JMException;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
 
 public class Main {
+    private static final int DEFAULT_PAGE_LIMIT = 1000;
+    private static final Duration WATCH_WAIT = Duration.ofSeconds(30);
+    private static final int EXIT_NOT_MODIFIED = 3;
+    private static final int EXIT_CONFLICT = 4;
+    private static final int EXIT_AUDIT_BROKEN = 5;
+
     public static void main(String[] args) throws Exception {
         if (args.length == 0) {
             printUsage();
@@ -17,9 +60,23 @@ public class Main {
         switch (command) {
             case "put" -> handlePut(args);
             case "get" -> handleGet(args);
+            case "put-blob" -> handlePutBlob(args);
+            case "get-blob" -> handleGetBlob(args);
+            case "sweep-blobs" -> handleSweepBlobs(args);
             case "delete" -> handleDelete(args);
             case "list" -> handleList(args);
             case "keys" -> handleKeys(args);
+            case "watch" -> handleWatch(args);
+            case "versions" -> handleVersions(args);
+            case "retention" -> handleRetention(args);
+            case "apply" -> handleApply(args);
+            case "session" -> handleSession(args);
+            case "rotate" -> handleRotate(args);
+            case "backup" -> handleBackup(args);
+            case "restore" -> handleRestore(args);
+            case "serve" -> handleServe(args);
+            case "stats" -> handleStats(args);
+            case "verify-audit" -> handleVerifyAudit(args);
             default -> {
                 System.err.println("Unknown command: " + command);
                 printUsage();
@@ -27,7 +84,17 @@ public class Main {
         }
     }
 
-    private static void handlePut(String[] args) throws IOException, GeneralSecurityException {
+    private static void handlePut(String[] arguments) throws IOException, GeneralSecurityException {
+        List<String> positional = new ArrayList<>();
+        Integer expectedVersion = null;
+        for (String argument : arguments) {
+            if (argument.startsWith("--expected-version=")) {
+                expectedVersion = Integer.parseInt(argument.substring("--expected-version=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
         if (args.length < 7) {
             printUsage();
             return;
@@ -43,10 +110,33 @@ public class Main {
         Path policiesPath = Path.of(args[6]);
 
         Commands commands = Commands.create(storePath, policiesPath, passphrase);
-        commands.put(certificatePath, secretPath, secret);
+        if (expectedVersion == null) {
+            commands.put(certificatePath, secretPath, secret);
+            return;
+        }
+        try {
+            int version = commands.put(certificatePath, secretPath, secret, expectedVersion);
+            System.err.println("Stored version " + version);
+        } catch (VersionConflictException exception) {
+            System.err.println(exception.getMessage());
+            System.exit(EXIT_CONFLICT);
+        }
     }
 
-    private static void handleGet(String[] args) throws IOException, GeneralSecurityException {
+    private static void handleGet(String[] arguments) throws IOException, GeneralSecurityException {
+        List<String> positional = new ArrayList<>();
+        Integer version = null;
+        Integer knownVersion = null;
+        for (String argument : arguments) {
+            if (argument.startsWith("--version=")) {
+                version = Integer.parseInt(argument.substring("--version=".length()));
+            } else if (argument.startsWith("--known-version=")) {
+                knownVersion = Integer.parseInt(argument.substring("--known-version=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
         if (args.length < 6) {
             printUsage();
             return;
@@ -58,10 +148,126 @@ public class Main {
         Path policiesPath = Path.of(args[5]);
 
         Commands commands = Commands.create(storePath, policiesPath, passphrase);
-        String secret = commands.get(certificatePath, secretPath);
+        if (knownVersion != null) {
+            Optional<ApiController.Secret> secret = commands.getIfNewer(certificatePath, secretPath, knownVersion);
+            if (secret.isEmpty()) {
+                System.err.println("Not modified: still version " + knownVersion);
+                System.exit(EXIT_NOT_MODIFIED);
+            }
+            System.err.println("Version " + secret.get().version());
+            System.out.println(secret.get().value());
+            return;
+        }
+        String secret = version == null
+                ? commands.get(certificatePath, secretPath)
+                : commands.get(certificatePath, secretPath, version);
         System.out.println(secret);
     }
 
+    private static void handlePutBlob(String[] args) throws IOException, GeneralSecurityException {
+        if (args.length < 7) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        String secretPath = args[2];
+        String file = args[3];
+        char[] passphrase = args[4].toCharArray();
+        Path certificatePath = Path.of(args[5]);
+        Path policiesPath = Path.of(args[6]);
+
+        Commands commands = Commands.create(storePath, policiesPath, passphrase);
+        try (ReadableByteChannel source = "-".equals(file)
+                ? Channels.newChannel(System.in)
+                : FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+            commands.putBlob(certificatePath, secretPath, source);
+        }
+    }
+
+    private static void handleGetBlob(String[] args) throws IOException, GeneralSecurityException {
+        if (args.length < 7) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        String secretPath = args[2];
+        String file = args[3];
+        char[] passphrase = args[4].toCharArray();
+        Path certificatePath = Path.of(args[5]);
+        Path policiesPath = Path.of(args[6]);
+
+        Commands commands = Commands.create(storePath, policiesPath, passphrase);
+        if ("-".equals(file)) {
+            WritableByteChannel target = Channels.newChannel(System.out);
+            commands.getBlob(certificatePath, secretPath, target);
+            System.out.flush();
+            return;
+        }
+        Path output = Path.of(file);
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        try {
+            try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                commands.getBlob(certificatePath, secretPath, target);
+            }
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void handleSweepBlobs(String[] arguments) throws IOException {
+        List<String> positional = new ArrayList<>();
+        long grace = 3600;
+        for (String argument : arguments) {
+            if (argument.startsWith("--grace=")) {
+                grace = Long.parseLong(argument.substring("--grace=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (args.length < 2) {
+            printUsage();
+            return;
+        }
+        int removed = Commands.sweepBlobs(Path.of(args[1]), Duration.ofSeconds(grace));
+        System.out.println("Removed " + removed + " blob files");
+    }
+
+    private static void handleVersions(String[] args) throws IOException, GeneralSecurityException {
+        if (args.length < 6) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        String secretPath = args[2];
+        char[] passphrase = args[3].toCharArray();
+        Path certificatePath = Path.of(args[4]);
+        Path policiesPath = Path.of(args[5]);
+
+        Commands commands = Commands.create(storePath, policiesPath, passphrase);
+        for (int version : commands.versions(certificatePath, secretPath)) {
+            System.out.println(version);
+        }
+    }
+
+    private static void handleRetention(String[] args) throws IOException, GeneralSecurityException {
+        if (args.length < 7) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        String prefix = args[2];
+        int versions = Integer.parseInt(args[3]);
+        char[] passphrase = args[4].toCharArray();
+        Path certificatePath = Path.of(args[5]);
+        Path policiesPath = Path.of(args[6]);
+
+        Commands commands = Commands.create(storePath, policiesPath, passphrase);
+        commands.retention(certificatePath, prefix, versions);
+    }
+
     private static void handleDelete(String[] args) throws IOException {
         if (args.length < 6) {
             printUsage();
@@ -81,48 +287,391 @@ public class Main {
         }
     }
 
-    private static void handleList(String[] args) throws IOException {
+    private static void handleList(String[] arguments) throws IOException {
+        handleListing(arguments, false);
+    }
+
+    private static void handleKeys(String[] arguments) throws IOException {
+        handleListing(arguments, true);
+    }
+
+    /**
+     * Prints a listing as it is produced, or one page of it with {@code --limit} or
+     * {@code --cursor}; the cursor for the next page then goes to stderr.
+     */
+    private static void handleListing(String[] arguments, boolean keys) throws IOException {
+        List<String> positional = new ArrayList<>();
+        Integer limit = null;
+        String cursor = null;
+        for (String argument : arguments) {
+            if (argument.startsWith("--limit=")) {
+                limit = Integer.parseInt(argument.substring("--limit=".length()));
+            } else if (argument.startsWith("--cursor=")) {
+                cursor = argument.substring("--cursor=".length());
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
         if (args.length < 6) {
             printUsage();
             return;
         }
         Path storePath = Path.of(args[1]);
-        String prefix = args[2];
+        String path = args[2];
         char[] passphrase = args[3].toCharArray();
         Path certificatePath = Path.of(args[4]);
         Path policiesPath = Path.of(args[5]);
 
+        Commands commands;
         try {
-            Commands commands = Commands.create(storePath, policiesPath, passphrase);
-            List<String> paths = commands.list(certificatePath, prefix);
-            for (String path : paths) {
-                System.out.println(path);
-            }
+            commands = Commands.create(storePath, policiesPath, passphrase);
         } catch (GeneralSecurityException exception) {
             throw new IOException("Unable to initialize crypto", exception);
         }
+        PrintWriter out = new PrintWriter(
+                new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        if (limit == null && cursor == null) {
+            try (Stream<String> entries = keys
+                    ? commands.streamKeys(certificatePath, path)
+                    : commands.streamList(certificatePath, path)) {
+                entries.forEachOrdered(out::println);
+            }
+            out.flush();
+            return;
+        }
+        int pageLimit = limit == null ? DEFAULT_PAGE_LIMIT : limit;
+        ApiController.Page page = keys
+                ? commands.keys(certificatePath, path, cursor, pageLimit)
+                : commands.list(certificatePath, path, cursor, pageLimit);
+        page.entries().forEach(out::println);
+        out.flush();
+        if (page.cursor() != null) {
+            System.err.println("Next cursor: " + page.cursor());
+        }
     }
 
-    private static void handleKeys(String[] args) throws IOException {
+    /**
+     * Prints changes under a prefix as they happen until interrupted, one
+     * {@code sequence put|delete version path} line each, and {@code sequence reset} when changes
+     * were missed. Starts from now, or after the sequence number given with {@code --after}.
+     */
+    private static void handleWatch(String[] arguments) throws IOException {
+        List<String> positional = new ArrayList<>();
+        long after = -1;
+        for (String argument : arguments) {
+            if (argument.startsWith("--after=")) {
+                after = Long.parseLong(argument.substring("--after=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
         if (args.length < 6) {
             printUsage();
             return;
         }
         Path storePath = Path.of(args[1]);
-        String path = args[2];
+        String prefix = args[2];
         char[] passphrase = args[3].toCharArray();
         Path certificatePath = Path.of(args[4]);
         Path policiesPath = Path.of(args[5]);
 
+        Commands commands;
         try {
-            Commands commands = Commands.create(storePath, policiesPath, passphrase);
-            List<String> keys = commands.keys(certificatePath, path);
-            for (String key : keys) {
-                System.out.println(key);
-            }
+            commands = Commands.create(storePath, policiesPath, passphrase);
         } catch (GeneralSecurityException exception) {
             throw new IOException("Unable to initialize crypto", exception);
         }
+        PrintWriter out = new PrintWriter(
+                new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        while (!out.checkError()) {
+            ChangeFeed.Batch batch = commands.watch(certificatePath, prefix, after, DEFAULT_PAGE_LIMIT, WATCH_WAIT);
+            if (batch.reset()) {
+                out.println(batch.cursor() + " reset");
+            }
+            for (ChangeFeed.Event event : batch.events()) {
+                out.println(event.sequence() + " " + event.type().name().toLowerCase(Locale.ROOT) + " "
+                        + event.version() + " " + event.path());
+            }
+            out.flush();
+            after = batch.cursor();
+        }
+    }
+
+    private static void handleApply(String[] args) throws IOException, GeneralSecurityException {
+        if (args.length < 6) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        String opsFile = args[2];
+        char[] passphrase = args[3].toCharArray();
+        Path certificatePath = Path.of(args[4]);
+        Path policiesPath = Path.of(args[5]);
+
+        List<ApiController.Op> ops;
+        try (BufferedReader reader = "-".equals(opsFile)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(opsFile), StandardCharsets.UTF_8)) {
+            ops = Commands.parseOps(reader);
+        }
+        Commands commands = Commands.create(storePath, policiesPath, passphrase);
+        commands.apply(certificatePath, ops);
+        System.out.println("Applied " + ops.size() + " operations");
+    }
+
+    private static void handleSession(String[] arguments) throws IOException, GeneralSecurityException {
+        List<String> positional = new ArrayList<>();
+        int parallelism = 1;
+        for (String argument : arguments) {
+            if (argument.startsWith("--parallel=")) {
+                parallelism = Integer.parseInt(argument.substring("--parallel=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (args.length < 6) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        String commandsFile = args[2];
+        char[] passphrase = args[3].toCharArray();
+        Path certificatePath = Path.of(args[4]);
+        Path policiesPath = Path.of(args[5]);
+
+        Session session = Commands.create(storePath, policiesPath, passphrase).session(certificatePath, parallelism);
+        int failures;
+        try (BufferedReader reader = "-".equals(commandsFile)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(commandsFile), StandardCharsets.UTF_8)) {
+            failures = session.run(reader, System.out, System.err);
+        }
+        if (failures > 0) {
+            System.err.println(failures + " commands failed");
+            System.exit(1);
+        }
+    }
+
+    private static void handleRotate(String[] arguments) throws IOException, GeneralSecurityException {
+        List<String> positional = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String argument : arguments) {
+            if (argument.startsWith("--threads=")) {
+                threads = Integer.parseInt(argument.substring("--threads=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (args.length < 4) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        char[] passphrase = args[2].toCharArray();
+        char[] newPassphrase = args[3].toCharArray();
+
+        int rewrapped = Commands.rotate(storePath, passphrase, newPassphrase, threads);
+        System.out.println("Re-wrapped " + rewrapped + " DEKs");
+    }
+
+    private static void handleBackup(String[] arguments) throws IOException {
+        List<String> positional = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String argument : arguments) {
+            if (argument.startsWith("--threads=")) {
+                threads = Integer.parseInt(argument.substring("--threads=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (args.length < 3) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        String file = args[2];
+
+        long versions;
+        if ("-".equals(file)) {
+            versions = Commands.backup(storePath, Channels.newChannel(System.out), threads);
+            System.out.flush();
+            System.err.println("Backed up " + versions + " versions");
+            return;
+        }
+        Path output = Path.of(file);
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        try {
+            try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                versions = Commands.backup(storePath, target, threads);
+                target.force(true);
+            }
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        System.out.println("Backed up " + versions + " versions");
+    }
+
+    private static void handleRestore(String[] arguments) throws IOException, GeneralSecurityException {
+        List<String> positional = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String argument : arguments) {
+            if (argument.startsWith("--threads=")) {
+                threads = Integer.parseInt(argument.substring("--threads=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (args.length < 4) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        String file = args[2];
+        char[] passphrase = args[3].toCharArray();
+        char[] newPassphrase = args.length > 4 ? args[4].toCharArray() : null;
+
+        long versions;
+        try (ReadableByteChannel source = "-".equals(file)
+                ? Channels.newChannel(System.in)
+                : FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+            versions = Commands.restore(storePath, source, passphrase, newPassphrase, threads);
+        }
+        System.out.println("Restored " + versions + " versions");
+    }
+
+    private static void handleServe(String[] arguments) throws IOException, GeneralSecurityException, JMException {
+        List<String> positional = new ArrayList<>();
+        int dekCacheSize = 0;
+        long dekCacheTtl = 300;
+        boolean metricsEnabled = false;
+        int maxConcurrent = 0;
+        Path auditPath = null;
+        int auditBuffer = AuditSettings.DEFAULT.capacity();
+        AuditSettings.Overflow auditOverflow = AuditSettings.DEFAULT.overflow();
+        for (String argument : arguments) {
+            if (argument.equals("--metrics")) {
+                metricsEnabled = true;
+            } else if (argument.startsWith("--audit-log=")) {
+                auditPath = Path.of(argument.substring("--audit-log=".length()));
+            } else if (argument.startsWith("--audit-buffer=")) {
+                auditBuffer = Integer.parseInt(argument.substring("--audit-buffer=".length()));
+            } else if (argument.startsWith("--audit-overflow=")) {
+                auditOverflow = AuditSettings.Overflow.valueOf(
+                        argument.substring("--audit-overflow=".length()).toUpperCase(Locale.ROOT));
+            } else if (argument.startsWith("--max-concurrent=")) {
+                maxConcurrent = Integer.parseInt(argument.substring("--max-concurrent=".length()));
+            } else if (argument.startsWith("--dek-cache-size=")) {
+                dekCacheSize = Integer.parseInt(argument.substring("--dek-cache-size=".length()));
+            } else if (argument.startsWith("--dek-cache-ttl=")) {
+                dekCacheTtl = Long.parseLong(argument.substring("--dek-cache-ttl=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (args.length < 7) {
+            printUsage();
+            return;
+        }
+        Path storePath = Path.of(args[1]);
+        char[] passphrase = args[2].toCharArray();
+        Path policiesPath = Path.of(args[3]);
+        int port = Integer.parseInt(args[4]);
+        Path keyStorePath = Path.of(args[5]);
+        char[] keyStorePassword = args[6].toCharArray();
+        Path trustStorePath = args.length > 7 ? Path.of(args[7]) : keyStorePath;
+
+        SecretRepository repository = new SecretRepository(storePath);
+        DekCache dekCache = new DekCache(dekCacheSize, Duration.ofSeconds(dekCacheTtl));
+        VaultMetrics metrics = metricsEnabled ? VaultMetrics.enabled() : VaultMetrics.disabled();
+        if (metricsEnabled) {
+            metrics.register(ManagementFactory.getPlatformMBeanServer());
+        }
+        AuditLog auditLog = auditPath == null
+                ? AuditLog.disabled()
+                : AuditLog.open(auditPath, new AuditSettings(auditBuffer, auditOverflow));
+        ApiController apiController = Commands.createController(repository, policiesPath, passphrase, dekCache,
+                metrics, auditLog);
+        VaultServer server = new VaultServer(
+                new InetSocketAddress(port),
+                VaultServer.sslContext(keyStorePath, trustStorePath, keyStorePassword),
+                apiController,
+                new AuthService(),
+                maxConcurrent);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            apiController.seal();
+            metrics.close();
+            try {
+                auditLog.close();
+            } catch (IOException exception) {
+                System.err.println("Unable to close audit log: " + exception.getMessage());
+            }
+            if (auditLog.dropped() > 0) {
+                System.err.println("Audit events dropped: " + auditLog.dropped());
+            }
+            try {
+                repository.close();
+            } catch (IOException exception) {
+                System.err.println("Unable to close store: " + exception.getMessage());
+            }
+        }));
+        server.start();
+        System.out.println("Listening on port " + server.address().getPort());
+    }
+
+    /**
+     * Prints the metrics of a server started with {@code --metrics}, read over JMX from
+     * {@code host:port} or a full {@code service:jmx:} URL.
+     */
+    private static void handleStats(String[] args) throws IOException, JMException {
+        if (args.length < 2) {
+            printUsage();
+            return;
+        }
+        String address = args[1];
+        JMXServiceURL url = new JMXServiceURL(address.startsWith("service:jmx:")
+                ? address
+                : "service:jmx:rmi:///jndi/rmi://" + address + "/jmxrmi");
+        try (JMXConnector connector = JMXConnectorFactory.connect(url)) {
+            StatsReport.print(connector.getMBeanServerConnection(), System.out);
+        }
+    }
+
+    private static void handleVerifyAudit(String[] arguments) throws IOException {
+        List<String> positional = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String argument : arguments) {
+            if (argument.startsWith("--threads=")) {
+                threads = Integer.parseInt(argument.substring("--threads=".length()));
+            } else {
+                positional.add(argument);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (args.length < 2) {
+            printUsage();
+            return;
+        }
+        AuditVerifier.Result result = AuditVerifier.verify(Path.of(args[1]), threads);
+        if (!result.intact()) {
+            System.err.println("Audit log broken at line " + result.brokenLine() + " (byte " + result.brokenOffset()
+                    + "), after " + result.entries() + " intact entries");
+            System.exit(EXIT_AUDIT_BROKEN);
+        }
+        if (result.incompleteBytes() > 0) {
+            System.err.println("Ignored an incomplete last entry of " + result.incompleteBytes() + " bytes");
+        }
+        System.out.println("Verified " + result.entries() + " entries");
+        System.out.println("Head " + (result.head() == null ? "-" : result.head()));
     }
 
     private static String readStdin() throws IOException {
@@ -137,10 +686,27 @@ public class Main {
 
     private static void printUsage() {
         System.out.println("Usage:");
-        System.out.println("  put <store> <path> <value|-> <passphrase> <cert> <policies>");
-        System.out.println("  get <store> <path> <passphrase> <cert> <policies>");
+        System.out.println("  put <store> <path> <value|-> <passphrase> <cert> <policies> [--expected-version=<n>]");
+        System.out.println("  get <store> <path> <passphrase> <cert> <policies> [--version=<n> | --known-version=<n>]");
+        System.out.println("  put-blob <store> <path> <file|-> <passphrase> <cert> <policies>");
+        System.out.println("  get-blob <store> <path> <file|-> <passphrase> <cert> <policies>");
+        System.out.println("  sweep-blobs <store> [--grace=<seconds>]");
         System.out.println("  delete <store> <path> <passphrase> <cert> <policies>");
-        System.out.println("  list <store> <prefix> <passphrase> <cert> <policies>");
-        System.out.println("  keys <store> <path> <passphrase> <cert> <policies>");
+        System.out.println("  list <store> <prefix> <passphrase> <cert> <policies> [--limit=<n>] [--cursor=<cursor>]");
+        System.out.println("  keys <store> <path> <passphrase> <cert> <policies> [--limit=<n>] [--cursor=<cursor>]");
+        System.out.println("  watch <store> <prefix> <passphrase> <cert> <policies> [--after=<seq>]");
+        System.out.println("  versions <store> <path> <passphrase> <cert> <policies>");
+        System.out.println("  retention <store> <prefix> <versions> <passphrase> <cert> <policies>");
+        System.out.println("  apply <store> <ops-file|-> <passphrase> <cert> <policies>");
+        System.out.println("  session <store> <commands-file|-> <passphrase> <cert> <policies> [--parallel=<n>]");
+        System.out.println("  rotate <store> <passphrase> <new-passphrase> [--threads=<n>]");
+        System.out.println("  backup <store> <snapshot|-> [--threads=<n>]");
+        System.out.println("  restore <store> <snapshot|-> <passphrase> [<new-passphrase>] [--threads=<n>]");
+        System.out.println("  serve <store> <passphrase> <policies> <port> <keystore.p12> <keystore-password> [truststore.p12]");
+        System.out.println("        [--dek-cache-size=<entries>] [--dek-cache-ttl=<seconds>] [--metrics]");
+        System.out.println("        [--max-concurrent=<requests>]");
+        System.out.println("        [--audit-log=<file>] [--audit-buffer=<events>] [--audit-overflow=block|drop]");
+        System.out.println("  stats <jmx-host:port|service:jmx:url>");
+        System.out.println("  verify-audit <audit-log> [--threads=<n>]");
     }
 }
@@ -0,0 +1,198 @@
+package com.example.vault.cli;
+
+import com.example.vault.server.ApiController;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs newline-delimited commands against one unsealed {@link ApiController} for one client
+ * certificate, so a script pays for the key derivation, the policy file and the certificate
+ * fingerprint once instead of once per command. Each line is one of {@code put <path> <value>}
+ * (the value is the rest of the line), {@code get <path> [<version>]}, {@code delete <path>},
+ * {@code list <prefix>} or {@code keys <path>}; blank lines and lines starting with {@code #} are
+ * skipped.
+ *
+ * <p>Every command prints what the command of the same name prints on its own. A failed command
+ * is reported on the error stream with its line number and the session carries on.
+ *
+ * <p>With a parallelism above one, that many commands run at the same time, and their output is
+ * still written in input order as soon as everything before it is done. Commands that run
+ * together may reach the store in any order, so a script that reads back its own writes needs a
+ * parallelism of one.
+ */
+public class Session {
+    private static final int WINDOW_PER_THREAD = 4;
+
+    private final ApiController apiController;
+    private final ApiController.RequestContext context;
+    private final int parallelism;
+
+    public Session(ApiController apiController, ApiController.RequestContext context, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.apiController = apiController;
+        this.context = context;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs every command read from {@code reader} and returns how many of them failed.
+     */
+    public int run(BufferedReader reader, PrintStream out, PrintStream err) throws IOException {
+        if (parallelism == 1) {
+            return runSequential(reader, out, err);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "vault-session");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            return runParallel(reader, out, err, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int runSequential(BufferedReader reader, PrintStream out, PrintStream err) throws IOException {
+        int failures = 0;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            Callable<List<String>> command = parse(line);
+            if (command == null) {
+                continue;
+            }
+            List<String> output;
+            try {
+                output = command.call();
+            } catch (Exception exception) {
+                failures++;
+                err.println("line " + lineNumber + ": " + message(exception));
+                continue;
+            }
+            print(out, output);
+        }
+        return failures;
+    }
+
+    private int runParallel(BufferedReader reader, PrintStream out, PrintStream err, ExecutorService executor)
+            throws IOException {
+        Deque<Running> window = new ArrayDeque<>();
+        int failures = 0;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            Callable<List<String>> command = parse(line);
+            if (command == null) {
+                continue;
+            }
+            window.add(new Running(lineNumber, executor.submit(command)));
+            while (window.size() >= parallelism * WINDOW_PER_THREAD) {
+                failures += report(window.remove(), out, err);
+            }
+        }
+        while (!window.isEmpty()) {
+            failures += report(window.remove(), out, err);
+        }
+        return failures;
+    }
+
+    /**
+     * Waits for {@code running} and prints its output or its failure; returns 1 if it failed.
+     */
+    private static int report(Running running, PrintStream out, PrintStream err) throws IOException {
+        try {
+            print(out, running.output().get());
+            return 0;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for session commands");
+        } catch (ExecutionException exception) {
+            err.println("line " + running.lineNumber() + ": " + message(exception.getCause()));
+            return 1;
+        }
+    }
+
+    private static void print(PrintStream out, List<String> output) {
+        for (String value : output) {
+            out.println(value);
+        }
+    }
+
+    private static String message(Throwable exception) {
+        return exception.getMessage() == null ? exception.getClass().getSimpleName() : exception.getMessage();
+    }
+
+    /**
+     * The command on {@code line}, or {@code null} for a blank line or a comment. A line that is
+     * not a valid command becomes one that fails, so it is reported in order with the others.
+     */
+    private Callable<List<String>> parse(String line) {
+        String trimmed = line.strip();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        String[] parts = trimmed.split("\\s+", 3);
+        switch (parts[0]) {
+            case "put" -> {
+                if (parts.length == 3) {
+                    return () -> {
+                        apiController.putSecret(parts[1], parts[2], context);
+                        return List.of();
+                    };
+                }
+            }
+            case "get" -> {
+                if (parts.length == 2) {
+                    return () -> List.of(apiController.getSecret(parts[1], context));
+                }
+                if (parts.length == 3 && parts[2].matches("\\d+")) {
+                    int version = Integer.parseInt(parts[2]);
+                    return () -> List.of(apiController.getSecret(parts[1], version, context));
+                }
+            }
+            case "delete" -> {
+                if (parts.length == 2) {
+                    return () -> {
+                        apiController.deleteSecret(parts[1], context);
+                        return List.of();
+                    };
+                }
+            }
+            case "list" -> {
+                if (parts.length <= 2) {
+                    String prefix = parts.length == 2 ? parts[1] : "";
+                    return () -> apiController.listSecrets(prefix, context);
+                }
+            }
+            case "keys" -> {
+                if (parts.length == 2) {
+                    return () -> apiController.listKeys(parts[1], context);
+                }
+            }
+            default -> {
+            }
+        }
+        return () -> {
+            throw new IOException("Invalid command: " + trimmed);
+        };
+    }
+
+    private record Running(int lineNumber, Future<List<String>> output) {
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.vault.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+
+/**
+ * Chunked AES-GCM for secrets too large to hold in memory. The plaintext is cut into chunks of a
+ * fixed size, and each chunk is sealed on its own with its own tag, so only one chunk is ever
+ * buffered in either direction. A chunk's IV is the blob nonce with the chunk index XORed into
+ * its last four bytes, so chunks cannot be reordered. The last chunk is sealed with a different
+ * associated data byte than the others, so a truncated blob fails authentication instead of
+ * reading as a shorter secret.
+ *
+ * <p>Every blob must have its own DEK or nonce. An empty plaintext still produces one (empty,
+ * final) chunk.
+ */
+public class BlobCipher {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] MORE = {0};
+    private static final byte[] FINAL = {1};
+
+    public byte[] newNonce() {
+        return Gcm.newIv();
+    }
+
+    /**
+     * Seals everything {@code source} yields into {@code target} and returns the number of
+     * plaintext bytes.
+     */
+    public long encrypt(ReadableByteChannel source, WritableByteChannel target, SecretKey dek, byte[] nonce,
+            int chunkSize) throws IOException, GeneralSecurityException {
+        check(dek, nonce, chunkSize);
+        ByteBuffer plaintext = ByteBuffer.allocate(chunkSize + 1);
+        ByteBuffer ciphertext = ByteBuffer.allocate(CryptoEngine.ciphertextLength(chunkSize));
+        long total = 0;
+        for (int index = 0; ; index++) {
+            fill(source, plaintext);
+            plaintext.flip();
+            boolean last = plaintext.remaining() <= chunkSize;
+            int length = Math.min(chunkSize, plaintext.remaining());
+            ciphertext.clear();
+            Gcm.encrypt(dek, chunkIv(nonce, index), last ? FINAL : MORE,
+                    plaintext.slice(plaintext.position(), length), ciphertext);
+            ciphertext.flip();
+            writeFully(target, ciphertext);
+            total += length;
+            if (last) {
+                return total;
+            }
+            plaintext.position(length).compact();
+        }
+    }
+
+    /**
+     * Opens the blob in {@code source}, which holds {@code size} plaintext bytes, into
+     * {@code target}. Fails before writing a chunk that does not authenticate.
+     */
+    public void decrypt(ReadableByteChannel source, WritableByteChannel target, SecretKey dek, byte[] nonce,
+            int chunkSize, long size) throws IOException, GeneralSecurityException {
+        check(dek, nonce, chunkSize);
+        long chunks = Math.max(1, (size + chunkSize - 1) / chunkSize);
+        ByteBuffer ciphertext = ByteBuffer.allocate(CryptoEngine.ciphertextLength(chunkSize));
+        ByteBuffer plaintext = ByteBuffer.allocate(chunkSize);
+        for (long index = 0; index < chunks; index++) {
+            boolean last = index == chunks - 1;
+            int length = last ? (int) (size - index * chunkSize) : chunkSize;
+            ciphertext.clear().limit(CryptoEngine.ciphertextLength(length));
+            fill(source, ciphertext);
+            if (ciphertext.hasRemaining()) {
+                throw new EOFException("Blob is truncated");
+            }
+            ciphertext.flip();
+            plaintext.clear();
+            Gcm.decrypt(dek, chunkIv(nonce, (int) index), last ? FINAL : MORE, ciphertext, plaintext);
+            plaintext.flip();
+            writeFully(target, plaintext);
+        }
+        if (source.read(ciphertext.clear().limit(1)) > 0) {
+            throw new AEADBadTagException("Blob has data after its final chunk");
+        }
+    }
+
+    private static void check(SecretKey dek, byte[] nonce, int chunkSize) {
+        Objects.requireNonNull(dek, "dek");
+        if (Objects.requireNonNull(nonce, "nonce").length != Gcm.IV_LENGTH) {
+            throw new IllegalArgumentException("nonce must be " + Gcm.IV_LENGTH + " bytes");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+    }
+
+    private static byte[] chunkIv(byte[] nonce, int index) {
+        byte[] iv = nonce.clone();
+        for (int i = 0; i < Integer.BYTES; i++) {
+            iv[iv.length - 1 - i] ^= (byte) (index >>> (8 * i));
+        }
+        return iv;
+    }
+
+    private static void fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && source.read(buffer) >= 0) {
+            // Keep reading until the buffer is full or the source is exhausted.
+        }
+    }
+
+    private static void writeFully(WritableByteChannel target, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+}
@@ -1,43 +1,80 @@
 package com.example.vault.crypto;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Objects;
 
-import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
 
 public class CryptoEngine {
-    private static final int GCM_TAG_LENGTH = 128;
-    private static final int GCM_IV_LENGTH = 12;
-
     public EncryptedSecret encryptSecret(String secret, SecretKey dek) throws GeneralSecurityException {
         Objects.requireNonNull(secret, "secret");
-        Objects.requireNonNull(dek, "dek");
-        byte[] iv = generateIv();
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        cipher.init(Cipher.ENCRYPT_MODE, dek, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-        byte[] ciphertext = cipher.doFinal(secret.getBytes(StandardCharsets.UTF_8));
-        return new EncryptedSecret(ciphertext, iv);
+        byte[] plaintext = secret.getBytes(StandardCharsets.UTF_8);
+        try {
+            return encrypt(plaintext, dek);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
     }
 
     public String decryptSecret(EncryptedSecret secret, SecretKey dek) throws GeneralSecurityException {
+        byte[] plaintext = decrypt(secret, dek);
+        try {
+            return new String(plaintext, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    public EncryptedSecret encrypt(byte[] plaintext, SecretKey dek) throws GeneralSecurityException {
+        Objects.requireNonNull(plaintext, "plaintext");
+        Objects.requireNonNull(dek, "dek");
+        byte[] iv = Gcm.newIv();
+        return new EncryptedSecret(Gcm.encrypt(dek, iv, plaintext, 0, plaintext.length), iv);
+    }
+
+    public byte[] decrypt(EncryptedSecret secret, SecretKey dek) throws GeneralSecurityException {
         Objects.requireNonNull(secret, "secret");
         Objects.requireNonNull(dek, "dek");
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        cipher.init(Cipher.DECRYPT_MODE, dek, new GCMParameterSpec(GCM_TAG_LENGTH, secret.iv()));
-        byte[] plaintext = cipher.doFinal(secret.ciphertext());
-        return new String(plaintext, StandardCharsets.UTF_8);
+        return Gcm.decrypt(dek, secret.iv(), secret.ciphertext(), 0, secret.ciphertext().length);
     }
 
-    private byte[] generateIv() {
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
+    /**
+     * Encrypts the remaining bytes of {@code plaintext} into {@code ciphertext}, which needs
+     * {@link #ciphertextLength(int)} bytes of room, and returns the IV that was used.
+     */
+    public byte[] encrypt(ByteBuffer plaintext, ByteBuffer ciphertext, SecretKey dek) throws GeneralSecurityException {
+        Objects.requireNonNull(plaintext, "plaintext");
+        Objects.requireNonNull(ciphertext, "ciphertext");
+        Objects.requireNonNull(dek, "dek");
+        byte[] iv = Gcm.newIv();
+        Gcm.encrypt(dek, iv, plaintext, ciphertext);
         return iv;
     }
 
+    /**
+     * Decrypts the remaining bytes of {@code ciphertext} into {@code plaintext}, which needs
+     * {@link #plaintextLength(int)} bytes of room, and returns the number of bytes written.
+     */
+    public int decrypt(ByteBuffer ciphertext, byte[] iv, ByteBuffer plaintext, SecretKey dek)
+            throws GeneralSecurityException {
+        Objects.requireNonNull(ciphertext, "ciphertext");
+        Objects.requireNonNull(iv, "iv");
+        Objects.requireNonNull(plaintext, "plaintext");
+        Objects.requireNonNull(dek, "dek");
+        return Gcm.decrypt(dek, iv, ciphertext, plaintext);
+    }
+
+    public static int ciphertextLength(int plaintextLength) {
+        return plaintextLength + Gcm.TAG_BYTES;
+    }
+
+    public static int plaintextLength(int ciphertextLength) {
+        return Math.max(0, ciphertextLength - Gcm.TAG_BYTES);
+    }
+
     public record EncryptedSecret(byte[] ciphertext, byte[] iv) {
     }
 }
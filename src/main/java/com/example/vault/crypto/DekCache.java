@@ -0,0 +1,188 @@
+package com.example.vault.crypto;
+
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKey;
+
+/**
+ * LRU cache of unwrapped DEKs keyed by secret path and version, bounded by entry count and time
+ * to live. Cached key bytes are owned by the cache and overwritten with zeros once an entry is
+ * evicted, expired or cleared and no caller still holds a lease on it.
+ */
+public class DekCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<Key, CachedDek> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DekCache(int maxEntries, Duration ttl) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = Objects.requireNonNull(ttl, "ttl").toNanos();
+    }
+
+    public static DekCache disabled() {
+        return new DekCache(0, Duration.ZERO);
+    }
+
+    /**
+     * Returns the DEK for {@code path} at {@code version}, unwrapping it through {@code loader} on
+     * a miss. The wrapping IV is compared on every hit so a path that was deleted and re-created
+     * at the same version never reuses the old key. Close the lease once the key has been used.
+     */
+    public Lease lease(String path, int version, byte[] dekIv, Loader loader) throws GeneralSecurityException {
+        if (maxEntries == 0) {
+            misses.increment();
+            return CachedDek.uncached(loader.load());
+        }
+        Key key = new Key(path, version);
+        long now = System.nanoTime();
+        synchronized (this) {
+            CachedDek cached = entries.get(key);
+            if (cached != null && cached.expiresAt - now > 0 && Arrays.equals(cached.dekIv, dekIv)
+                    && cached.acquire()) {
+                hits.increment();
+                return cached;
+            }
+            if (cached != null) {
+                entries.remove(key);
+                cached.evict();
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        CachedDek loaded = CachedDek.cached(loader.load(), dekIv.clone(), now + ttlNanos);
+        loaded.acquire();
+        synchronized (this) {
+            CachedDek previous = entries.put(key, loaded);
+            if (previous != null) {
+                previous.evict();
+            }
+            Iterator<CachedDek> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next().evict();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        return loaded;
+    }
+
+    public synchronized void clear() {
+        for (CachedDek cached : entries.values()) {
+            cached.evict();
+        }
+        entries.clear();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public interface Loader {
+        SecretKey load() throws GeneralSecurityException;
+    }
+
+    public interface Lease extends AutoCloseable {
+        SecretKey key();
+
+        @Override
+        void close();
+    }
+
+    private record Key(String path, int version) {
+    }
+
+    private static final class CachedDek implements SecretKey, Lease {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] material;
+        private final transient byte[] dekIv;
+        private final transient long expiresAt;
+        private transient int users;
+        private transient boolean evicted;
+
+        private CachedDek(byte[] material, byte[] dekIv, long expiresAt, boolean evicted) {
+            this.material = material;
+            this.dekIv = dekIv;
+            this.expiresAt = expiresAt;
+            this.evicted = evicted;
+        }
+
+        static CachedDek cached(SecretKey key, byte[] dekIv, long expiresAt) {
+            return new CachedDek(key.getEncoded(), dekIv, expiresAt, false);
+        }
+
+        static CachedDek uncached(SecretKey key) {
+            CachedDek dek = new CachedDek(key.getEncoded(), null, 0, true);
+            dek.users = 1;
+            return dek;
+        }
+
+        synchronized boolean acquire() {
+            if (evicted) {
+                return false;
+            }
+            users++;
+            return true;
+        }
+
+        synchronized void evict() {
+            evicted = true;
+            if (users == 0) {
+                Arrays.fill(material, (byte) 0);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            users--;
+            if (users == 0 && evicted) {
+                Arrays.fill(material, (byte) 0);
+            }
+        }
+
+        @Override
+        public SecretKey key() {
+            return this;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "AES";
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public synchronized byte[] getEncoded() {
+            return material.clone();
+        }
+    }
+}
@@ -1,47 +1,47 @@
 package com.example.vault.crypto;
 
 import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Objects;
 
-import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 public class DekService {
-    private static final int GCM_TAG_LENGTH = 128;
-    private static final int GCM_IV_LENGTH = 12;
-
-    public SecretKey generateDek() throws GeneralSecurityException {
-        KeyGenerator generator = KeyGenerator.getInstance("AES");
-        generator.init(256);
-        return generator.generateKey();
+    private static final int DEK_LENGTH = 32;
+
+    public SecretKey generateDek() {
+        byte[] keyBytes = new byte[DEK_LENGTH];
+        Gcm.random().nextBytes(keyBytes);
+        try {
+            return new SecretKeySpec(keyBytes, "AES");
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
     }
 
     public WrappedDek wrapDek(SecretKey dek, SecretKey masterKey) throws GeneralSecurityException {
         Objects.requireNonNull(dek, "dek");
         Objects.requireNonNull(masterKey, "masterKey");
-        byte[] iv = generateIv();
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-        byte[] ciphertext = cipher.doFinal(dek.getEncoded());
-        return new WrappedDek(ciphertext, iv);
+        byte[] iv = Gcm.newIv();
+        byte[] keyBytes = dek.getEncoded();
+        try {
+            return new WrappedDek(Gcm.encrypt(masterKey, iv, keyBytes, 0, keyBytes.length), iv);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
     }
 
     public SecretKey unwrapDek(WrappedDek wrappedDek, SecretKey masterKey) throws GeneralSecurityException {
         Objects.requireNonNull(wrappedDek, "wrappedDek");
         Objects.requireNonNull(masterKey, "masterKey");
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(GCM_TAG_LENGTH, wrappedDek.iv()));
-        byte[] keyBytes = cipher.doFinal(wrappedDek.encryptedDek());
-        return new javax.crypto.spec.SecretKeySpec(keyBytes, "AES");
-    }
-
-    private byte[] generateIv() {
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
-        return iv;
+        byte[] encryptedDek = wrappedDek.encryptedDek();
+        byte[] keyBytes = Gcm.decrypt(masterKey, wrappedDek.iv(), encryptedDek, 0, encryptedDek.length);
+        try {
+            return new SecretKeySpec(keyBytes, "AES");
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
     }
 
     public record WrappedDek(byte[] encryptedDek, byte[] iv) {
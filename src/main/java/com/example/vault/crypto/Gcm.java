@@ -0,0 +1,86 @@
+package com.example.vault.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * AES-GCM with one {@link Cipher} and one {@link SecureRandom} per thread. A cipher is always
+ * re-initialised before use, so reusing it carries no state between calls, and every encryption
+ * draws a fresh random 96-bit IV exactly as before.
+ */
+final class Gcm {
+    static final int TAG_LENGTH = 128;
+    static final int TAG_BYTES = TAG_LENGTH / 8;
+    static final int IV_LENGTH = 12;
+
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(Gcm::newCipher);
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private Gcm() {
+    }
+
+    static SecureRandom random() {
+        return RANDOM.get();
+    }
+
+    static byte[] newIv() {
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.get().nextBytes(iv);
+        return iv;
+    }
+
+    static byte[] encrypt(SecretKey key, byte[] iv, byte[] plaintext, int offset, int length)
+            throws GeneralSecurityException {
+        return init(Cipher.ENCRYPT_MODE, key, iv).doFinal(plaintext, offset, length);
+    }
+
+    static byte[] decrypt(SecretKey key, byte[] iv, byte[] ciphertext, int offset, int length)
+            throws GeneralSecurityException {
+        return init(Cipher.DECRYPT_MODE, key, iv).doFinal(ciphertext, offset, length);
+    }
+
+    static int encrypt(SecretKey key, byte[] iv, ByteBuffer plaintext, ByteBuffer ciphertext)
+            throws GeneralSecurityException {
+        return init(Cipher.ENCRYPT_MODE, key, iv).doFinal(plaintext, ciphertext);
+    }
+
+    static int decrypt(SecretKey key, byte[] iv, ByteBuffer ciphertext, ByteBuffer plaintext)
+            throws GeneralSecurityException {
+        return init(Cipher.DECRYPT_MODE, key, iv).doFinal(ciphertext, plaintext);
+    }
+
+    static int encrypt(SecretKey key, byte[] iv, byte[] aad, ByteBuffer plaintext, ByteBuffer ciphertext)
+            throws GeneralSecurityException {
+        Cipher cipher = init(Cipher.ENCRYPT_MODE, key, iv);
+        cipher.updateAAD(aad);
+        return cipher.doFinal(plaintext, ciphertext);
+    }
+
+    static int decrypt(SecretKey key, byte[] iv, byte[] aad, ByteBuffer ciphertext, ByteBuffer plaintext)
+            throws GeneralSecurityException {
+        Cipher cipher = init(Cipher.DECRYPT_MODE, key, iv);
+        cipher.updateAAD(aad);
+        return cipher.doFinal(ciphertext, plaintext);
+    }
+
+    private static Cipher init(int mode, SecretKey key, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = CIPHER.get();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH, iv));
+        return cipher;
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException exception) {
+            throw new IllegalStateException("AES/GCM is not available", exception);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.vault.crypto;
+
+import com.example.vault.storage.SecretRecord;
+import com.example.vault.storage.SecretRepository;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Moves DEKs from one master key to another on a fork-join pool of its own. Each chunk handed
+ * over by the store is split in halves until a piece is small enough, and every DEK of a piece is
+ * unwrapped with the old key and wrapped again with the new one under a fresh IV. The secret
+ * itself is never decrypted.
+ */
+final class KeyRotation implements SecretRepository.Rewrapper, AutoCloseable {
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    private final DekService dekService = new DekService();
+    private final SecretKey previousKey;
+    private final SecretKey nextKey;
+    private final ForkJoinPool pool;
+
+    KeyRotation(SecretKey previousKey, SecretKey nextKey, int parallelism) {
+        this.previousKey = previousKey;
+        this.nextKey = nextKey;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @Override
+    public List<SecretRecord> rewrap(List<SecretRecord> records) throws GeneralSecurityException {
+        SecretRecord[] rewrapped = new SecretRecord[records.size()];
+        AtomicReference<GeneralSecurityException> failure = new AtomicReference<>();
+        pool.invoke(new Task(records, rewrapped, failure, 0, records.size()));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return Arrays.asList(rewrapped);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private SecretRecord rewrap(SecretRecord record) throws GeneralSecurityException {
+        SecretKey dek = dekService.unwrapDek(new DekService.WrappedDek(record.encryptedDek(), record.dekIv()),
+                previousKey);
+        DekService.WrappedDek wrapped = dekService.wrapDek(dek, nextKey);
+        return new SecretRecord(record.path(), wrapped.encryptedDek(), wrapped.iv(), record.secretIv(),
+                record.ciphertext(), record.version(), record.createdAt(), record.updatedAt());
+    }
+
+    /**
+     * Re-wraps {@code records[from, to)} into the same slots of {@code rewrapped}; the first
+     * failure is kept and stops the pieces that have not started yet.
+     */
+    private final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<SecretRecord> records;
+        private final SecretRecord[] rewrapped;
+        private final AtomicReference<GeneralSecurityException> failure;
+        private final int from;
+        private final int to;
+
+        private Task(List<SecretRecord> records, SecretRecord[] rewrapped,
+                AtomicReference<GeneralSecurityException> failure, int from, int to) {
+            this.records = records;
+            this.rewrapped = rewrapped;
+            this.failure = failure;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SEQUENTIAL_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Task(records, rewrapped, failure, from, middle),
+                        new Task(records, rewrapped, failure, middle, to));
+                return;
+            }
+            for (int i = from; i < to && failure.get() == null; i++) {
+                try {
+                    rewrapped[i] = rewrap(records.get(i));
+                } catch (GeneralSecurityException exception) {
+                    failure.compareAndSet(null, exception);
+                }
+            }
+        }
+    }
+}
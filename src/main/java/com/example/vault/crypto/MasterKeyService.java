@@ -1,26 +1,53 @@
 package com.example.vault.crypto;
 
+import com.example.vault.storage.SecretRecord;
 import com.example.vault.storage.SecretRepository;
 
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * Derives the master key from a passphrase with PBKDF2 under the salt and iteration count kept
+ * in the store metadata. A check value (a known constant sealed with the key) is stored next to
+ * them, so a wrong passphrase is refused at unseal instead of failing on the first read.
+ *
+ * <p>{@link #rotate} moves the store to a key derived from a new passphrase under a new salt by
+ * re-wrapping every DEK. A service still holding the old key notices the salt change on its next
+ * use and seals itself.
+ *
+ * <p>{@link #restore} loads a snapshot into an empty store, either under the master key it was
+ * taken with or, re-wrapping every DEK on the way in, under a key derived from a new passphrase.
+ */
 public class MasterKeyService {
     private static final int KEY_LENGTH = 256;
     private static final int DEFAULT_ITERATIONS = 120_000;
     private static final int SALT_LENGTH = 16;
+    private static final String SALT = "master.salt";
+    private static final String ITERATIONS = "master.iterations";
+    private static final String CHECK = "master.check";
+    private static final String PREVIOUS_SALT = "master.previous.salt";
+    private static final String PREVIOUS_ITERATIONS = "master.previous.iterations";
+    private static final byte[] CHECK_PLAINTEXT = "vault master key".getBytes(StandardCharsets.UTF_8);
 
     private final SecretRepository repository;
+    private final List<Runnable> sealListeners = new CopyOnWriteArrayList<>();
     private SecretKey masterKey;
+    private String salt;
 
     public MasterKeyService(SecretRepository repository) {
         this.repository = Objects.requireNonNull(repository, "repository");
@@ -28,36 +55,244 @@ public class MasterKeyService {
 
     public synchronized void unseal(char[] passphrase) throws IOException, GeneralSecurityException {
         Objects.requireNonNull(passphrase, "passphrase");
-        Properties properties = repository.loadProperties();
-        String saltValue = properties.getProperty("master.salt");
-        String iterationsValue = properties.getProperty("master.iterations");
-        int iterations = iterationsValue == null ? DEFAULT_ITERATIONS : Integer.parseInt(iterationsValue);
-        byte[] salt = saltValue == null ? generateSalt() : Base64.getDecoder().decode(saltValue);
+        Map<String, String> metadata = repository.loadMetadata();
+        String saltValue = metadata.get(SALT);
+        int iterations = iterations(metadata.get(ITERATIONS));
+        byte[] saltBytes = saltValue == null ? generateSalt() : Base64.getDecoder().decode(saltValue);
+        SecretKey key = deriveKey(passphrase, saltBytes, iterations);
         if (saltValue == null) {
-            properties.setProperty("master.salt", Base64.getEncoder().encodeToString(salt));
-            properties.setProperty("master.iterations", Integer.toString(iterations));
-            repository.saveProperties(properties);
+            saltValue = Base64.getEncoder().encodeToString(saltBytes);
+            metadata.put(SALT, saltValue);
+            metadata.put(ITERATIONS, Integer.toString(iterations));
+            metadata.put(CHECK, checkValue(key));
+            repository.saveMetadata(metadata);
+        } else if (metadata.containsKey(CHECK) && !matches(key, metadata.get(CHECK))) {
+            throw new GeneralSecurityException("Passphrase does not match the store");
         }
-        PBEKeySpec spec = new PBEKeySpec(passphrase, salt, iterations, KEY_LENGTH);
-        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        byte[] keyBytes = factory.generateSecret(spec).getEncoded();
-        this.masterKey = new SecretKeySpec(keyBytes, "AES");
+        this.masterKey = key;
+        this.salt = saltValue;
+    }
+
+    /**
+     * Derives a new master key from {@code newPassphrase} under a fresh salt and re-wraps every
+     * DEK in the store with it on {@code parallelism} threads, leaving the ciphertexts as they
+     * are. The new key parameters are committed in the same step as the wrapped DEKs of the latest
+     * versions. If an earlier rotation was interrupted, that one is finished instead, with the
+     * parameters it started with; this takes the same two passphrases. The service is unsealed
+     * with the new key afterwards.
+     *
+     * @return the number of DEKs re-wrapped
+     */
+    public synchronized int rotate(char[] currentPassphrase, char[] newPassphrase, int parallelism)
+            throws IOException, GeneralSecurityException {
+        Objects.requireNonNull(currentPassphrase, "currentPassphrase");
+        Objects.requireNonNull(newPassphrase, "newPassphrase");
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        Map<String, String> metadata = repository.loadMetadata();
+        Map<String, String> target = repository.interruptedRewrap().orElse(null);
+        SecretKey nextKey;
+        if (target == null) {
+            if (!metadata.containsKey(SALT)) {
+                throw new IllegalStateException("Store has no master key to rotate");
+            }
+            byte[] nextSalt = generateSalt();
+            nextKey = deriveKey(newPassphrase, nextSalt, DEFAULT_ITERATIONS);
+            target = new HashMap<>();
+            target.put(SALT, Base64.getEncoder().encodeToString(nextSalt));
+            target.put(ITERATIONS, Integer.toString(DEFAULT_ITERATIONS));
+            target.put(CHECK, checkValue(nextKey));
+            target.put(PREVIOUS_SALT, metadata.get(SALT));
+            target.put(PREVIOUS_ITERATIONS, Integer.toString(iterations(metadata.get(ITERATIONS))));
+        } else {
+            nextKey = deriveKey(newPassphrase, Base64.getDecoder().decode(target.get(SALT)),
+                    iterations(target.get(ITERATIONS)));
+            if (!matches(nextKey, target.get(CHECK))) {
+                throw new GeneralSecurityException("New passphrase does not match the interrupted rotation");
+            }
+        }
+        SecretKey previousKey = deriveKey(currentPassphrase, Base64.getDecoder().decode(target.get(PREVIOUS_SALT)),
+                iterations(target.get(PREVIOUS_ITERATIONS)));
+        if (target.get(PREVIOUS_SALT).equals(metadata.get(SALT)) && metadata.containsKey(CHECK)
+                && !matches(previousKey, metadata.get(CHECK))) {
+            throw new GeneralSecurityException("Passphrase does not match the store");
+        }
+        int rewrapped;
+        try (KeyRotation rotation = new KeyRotation(previousKey, nextKey, parallelism)) {
+            rewrapped = repository.rewrap(target, rotation);
+        }
+        masterKey = nextKey;
+        salt = target.get(SALT);
+        return rewrapped;
+    }
+
+    /**
+     * Restores the snapshot read from {@code snapshot} into the store, which must be empty, on
+     * {@code parallelism} threads. {@code passphrase} has to match the snapshot. Without a
+     * {@code newPassphrase} the store keeps the snapshot's master key; with one, every DEK is
+     * re-wrapped under a key derived from it with a fresh salt as the snapshot is read. The
+     * service is unsealed with the resulting key afterwards.
+     *
+     * @return the number of versions restored
+     */
+    public synchronized long restore(ReadableByteChannel snapshot, char[] passphrase, char[] newPassphrase,
+            int parallelism) throws IOException, GeneralSecurityException {
+        Objects.requireNonNull(passphrase, "passphrase");
+        SnapshotKeys keys = new SnapshotKeys(passphrase, newPassphrase, parallelism);
+        long restored;
+        try (keys) {
+            restored = repository.restore(snapshot, keys, parallelism);
+        }
+        if (keys.key == null) {
+            unseal(newPassphrase == null ? passphrase : newPassphrase);
+        } else {
+            masterKey = keys.key;
+            salt = keys.salt;
+        }
+        return restored;
+    }
+
+    public void seal() {
+        synchronized (this) {
+            masterKey = null;
+        }
+        for (Runnable listener : sealListeners) {
+            listener.run();
+        }
+    }
+
+    public void onSeal(Runnable listener) {
+        sealListeners.add(Objects.requireNonNull(listener, "listener"));
     }
 
     public synchronized boolean isSealed() {
         return masterKey == null;
     }
 
-    public synchronized SecretKey requireMasterKey() {
-        if (masterKey == null) {
-            throw new IllegalStateException("Master key is sealed");
+    /**
+     * Returns the master key, sealing instead when the store has been rotated to another key
+     * since it was unsealed.
+     */
+    public SecretKey requireMasterKey() throws IOException {
+        String current = repository.metadata(SALT).orElse(null);
+        synchronized (this) {
+            if (masterKey == null) {
+                throw new IllegalStateException("Master key is sealed");
+            }
+            if (Objects.equals(current, salt)) {
+                return masterKey;
+            }
+        }
+        seal();
+        throw new IllegalStateException("Master key was rotated; unseal again");
+    }
+
+    private static SecretKey deriveKey(char[] passphrase, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(passphrase, salt, iterations, KEY_LENGTH);
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            byte[] keyBytes = factory.generateSecret(spec).getEncoded();
+            try {
+                return new SecretKeySpec(keyBytes, "AES");
+            } finally {
+                Arrays.fill(keyBytes, (byte) 0);
+            }
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static int iterations(String value) {
+        return value == null ? DEFAULT_ITERATIONS : Integer.parseInt(value);
+    }
+
+    /**
+     * {@link #CHECK_PLAINTEXT} sealed with {@code key}, as Base64 of the IV followed by the
+     * ciphertext.
+     */
+    private static String checkValue(SecretKey key) throws GeneralSecurityException {
+        byte[] iv = Gcm.newIv();
+        byte[] sealed = Gcm.encrypt(key, iv, CHECK_PLAINTEXT, 0, CHECK_PLAINTEXT.length);
+        byte[] value = Arrays.copyOf(iv, iv.length + sealed.length);
+        System.arraycopy(sealed, 0, value, iv.length, sealed.length);
+        return Base64.getEncoder().encodeToString(value);
+    }
+
+    private static boolean matches(SecretKey key, String checkValue) throws GeneralSecurityException {
+        byte[] value = Base64.getDecoder().decode(checkValue);
+        byte[] iv = Arrays.copyOf(value, Gcm.IV_LENGTH);
+        try {
+            byte[] opened = Gcm.decrypt(key, iv, value, Gcm.IV_LENGTH, value.length - Gcm.IV_LENGTH);
+            return Arrays.equals(opened, CHECK_PLAINTEXT);
+        } catch (AEADBadTagException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * The master key parameters of a restored store, and the DEK re-wrapping that gets there.
+     */
+    private final class SnapshotKeys implements SecretRepository.Restore, AutoCloseable {
+        private final char[] passphrase;
+        private final char[] newPassphrase;
+        private final int parallelism;
+        private KeyRotation rotation;
+        private SecretKey key;
+        private String salt;
+
+        private SnapshotKeys(char[] passphrase, char[] newPassphrase, int parallelism) {
+            this.passphrase = passphrase;
+            this.newPassphrase = newPassphrase;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        public Map<String, String> metadata(Map<String, String> snapshot) throws GeneralSecurityException {
+            if (!snapshot.containsKey(SALT)) {
+                // Never unsealed, so there is nothing wrapped yet; unseal sets the key up afterwards.
+                return snapshot;
+            }
+            SecretKey previousKey = deriveKey(passphrase, Base64.getDecoder().decode(snapshot.get(SALT)),
+                    iterations(snapshot.get(ITERATIONS)));
+            if (snapshot.containsKey(CHECK) && !matches(previousKey, snapshot.get(CHECK))) {
+                throw new GeneralSecurityException("Passphrase does not match the snapshot");
+            }
+            if (newPassphrase == null) {
+                key = previousKey;
+                salt = snapshot.get(SALT);
+                return snapshot;
+            }
+            byte[] nextSalt = generateSalt();
+            key = deriveKey(newPassphrase, nextSalt, DEFAULT_ITERATIONS);
+            salt = Base64.getEncoder().encodeToString(nextSalt);
+            Map<String, String> metadata = new HashMap<>(snapshot);
+            metadata.put(SALT, salt);
+            metadata.put(ITERATIONS, Integer.toString(DEFAULT_ITERATIONS));
+            metadata.put(CHECK, checkValue(key));
+            metadata.put(PREVIOUS_SALT, snapshot.get(SALT));
+            metadata.put(PREVIOUS_ITERATIONS, Integer.toString(iterations(snapshot.get(ITERATIONS))));
+            rotation = new KeyRotation(previousKey, key, parallelism);
+            return metadata;
+        }
+
+        @Override
+        public List<SecretRecord> rewrap(List<SecretRecord> records) throws GeneralSecurityException {
+            return rotation == null ? records : rotation.rewrap(records);
+        }
+
+        @Override
+        public void close() {
+            if (rotation != null) {
+                rotation.close();
+            }
         }
-        return masterKey;
     }
 
     private byte[] generateSalt() {
         byte[] salt = new byte[SALT_LENGTH];
-        new SecureRandom().nextBytes(salt);
+        Gcm.random().nextBytes(salt);
         return salt;
     }
 }
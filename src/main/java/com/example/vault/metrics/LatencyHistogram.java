@@ -0,0 +1,93 @@
+package com.example.vault.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of latencies in nanoseconds. Every power of two is split into
+ * {@value #SUB_BUCKETS} equal buckets, so a percentile is off by at most 1/16 of its value while
+ * the whole range up to {@link Long#MAX_VALUE} fits in a fixed array; recording is one atomic
+ * increment plus two adders and never allocates. The maximum is tracked exactly.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = Long.SIZE * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        totalNanos.add(value);
+        if (value > maxNanos.get()) {
+            maxNanos.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * A point-in-time view; concurrent recordings may be partly included.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            recorded += counts[i];
+        }
+        long max = maxNanos.get();
+        return new Snapshot(
+                recorded,
+                recorded == 0 ? 0 : totalNanos.sum() / (double) recorded,
+                percentile(counts, recorded, 0.50, max),
+                percentile(counts, recorded, 0.99, max),
+                percentile(counts, recorded, 0.999, max),
+                max);
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * The midpoint of the bucket holding the given quantile, capped at the recorded maximum.
+     */
+    private static long percentile(long[] counts, long recorded, double quantile, long max) {
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * recorded);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(midpoint(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static long midpoint(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS)) + width / 2;
+    }
+
+    public record Snapshot(long count, double meanNanos, long p50Nanos, long p99Nanos, long p999Nanos,
+            long maxNanos) {
+    }
+}
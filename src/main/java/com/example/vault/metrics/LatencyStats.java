@@ -0,0 +1,103 @@
+package com.example.vault.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram plus outcome counters for one operation or stage. Requests turned away by
+ * admission control before doing any work are only counted, as throttled or shed, and do not
+ * show up in the latencies.
+ */
+public final class LatencyStats implements LatencyStatsMBean {
+    private static final double NANOS_PER_MICRO = 1_000.0;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final long createdAt;
+
+    LatencyStats(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    void failed(Throwable failure) {
+        if (failure instanceof SecurityException) {
+            denied.increment();
+        } else {
+            errors.increment();
+        }
+    }
+
+    void throttled() {
+        throttled.increment();
+    }
+
+    void shed() {
+        shed.increment();
+    }
+
+    public LatencyHistogram.Snapshot snapshot() {
+        return histogram.snapshot();
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.snapshot().count();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getDenied() {
+        return denied.sum();
+    }
+
+    @Override
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    @Override
+    public long getShed() {
+        return shed.sum();
+    }
+
+    @Override
+    public double getThroughputPerSecond() {
+        double seconds = (System.nanoTime() - createdAt) / 1e9;
+        return seconds <= 0 ? 0 : getCount() / seconds;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return histogram.snapshot().meanNanos() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return histogram.snapshot().p50Nanos() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return histogram.snapshot().p99Nanos() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return histogram.snapshot().p999Nanos() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return histogram.snapshot().maxNanos() / NANOS_PER_MICRO;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.vault.metrics;
+
+/**
+ * JMX view of one operation or stage. Times are in microseconds; throughput is the average rate
+ * since the metrics were created.
+ */
+public interface LatencyStatsMBean {
+    long getCount();
+
+    long getErrors();
+
+    long getDenied();
+
+    long getThrottled();
+
+    long getShed();
+
+    double getThroughputPerSecond();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
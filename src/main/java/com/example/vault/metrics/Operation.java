@@ -0,0 +1,28 @@
+package com.example.vault.metrics;
+
+/**
+ * Request types of {@code ApiController}, each with its own end-to-end latency and outcome counts.
+ */
+public enum Operation {
+    GET("get"),
+    PUT("put"),
+    GET_BLOB("getBlob"),
+    PUT_BLOB("putBlob"),
+    DELETE("delete"),
+    APPLY("apply"),
+    LIST("list"),
+    KEYS("keys"),
+    VERSIONS("versions"),
+    RETENTION("retention"),
+    WATCH("watch");
+
+    private final String label;
+
+    Operation(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+}
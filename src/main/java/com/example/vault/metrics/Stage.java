@@ -0,0 +1,24 @@
+package com.example.vault.metrics;
+
+/**
+ * Steps inside a request that are timed on their own.
+ */
+public enum Stage {
+    POLICY_CHECK("policy-check"),
+    STORE_READ("store-read"),
+    DEK_UNWRAP("dek-unwrap"),
+    DECRYPT("decrypt"),
+    ENCRYPT("encrypt"),
+    DEK_WRAP("dek-wrap"),
+    STORE_WRITE("store-write");
+
+    private final String label;
+
+    Stage(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.vault.metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+
+/**
+ * Prints the published {@link LatencyStatsMBean}s of a vault as two tables, one for operations
+ * and one for stages, in the enum order. Works against any {@link MBeanServerConnection}, local or
+ * remote.
+ */
+public final class StatsReport {
+    private static final String[] ATTRIBUTES = {
+            "Count", "Errors", "Denied", "Throttled", "Shed", "ThroughputPerSecond", "MeanMicros", "P50Micros", "P99Micros",
+            "P999Micros", "MaxMicros"};
+    private static final String HEADER = "%-14s %10s %8s %8s %9s %8s %10s %10s %10s %10s %10s %10s%n";
+    private static final String ROW = "%-14s %10d %8d %8d %9d %8d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n";
+
+    private StatsReport() {
+    }
+
+    public static void print(MBeanServerConnection connection, PrintStream out) throws IOException, JMException {
+        List<String> operations = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            operations.add(operation.label());
+        }
+        List<String> stages = new ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            stages.add(stage.label());
+        }
+        if (!connection.isRegistered(VaultMetrics.objectName("Operation", operations.get(0)))) {
+            throw new IllegalStateException("No vault metrics are published; start the server with --metrics");
+        }
+        printTable(connection, out, "Operation", "operation", operations);
+        out.println();
+        printTable(connection, out, "Stage", "stage", stages);
+        out.println();
+        out.println("Times in microseconds; ops/s is the average since the server started.");
+    }
+
+    private static void printTable(MBeanServerConnection connection, PrintStream out, String type, String title,
+            List<String> names) throws IOException, JMException {
+        out.printf(HEADER, title, "count", "errors", "denied", "throttled", "shed", "ops/s", "mean", "p50", "p99", "p99.9", "max");
+        for (String name : names) {
+            List<Object> values = new ArrayList<>();
+            values.add(name);
+            for (Attribute attribute : connection.getAttributes(VaultMetrics.objectName(type, name), ATTRIBUTES)
+                    .asList()) {
+                values.add(attribute.getValue());
+            }
+            out.printf(ROW, values.toArray());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.vault.metrics;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Latency and outcome counters per {@link Operation} and per {@link Stage}. Callers bracket work
+ * with {@link #start()} and one of the {@code record} methods; when metrics are disabled
+ * {@code start()} does not read the clock and every other method returns on its first check, so
+ * the instrumentation costs a predictable branch.
+ *
+ * <p>{@link #register} publishes each counter as a {@link LatencyStatsMBean} named
+ * {@code com.example.vault:type=Operation,name=get} or {@code com.example.vault:type=Stage,name=decrypt}.
+ */
+public final class VaultMetrics implements Closeable {
+    public static final String DOMAIN = "com.example.vault";
+
+    private static final VaultMetrics DISABLED = new VaultMetrics(false);
+
+    private final boolean enabled;
+    private final LatencyStats[] operations;
+    private final LatencyStats[] stages;
+    private final List<ObjectName> registered = new ArrayList<>();
+    private MBeanServer server;
+
+    private VaultMetrics(boolean enabled) {
+        this.enabled = enabled;
+        long now = System.nanoTime();
+        this.operations = new LatencyStats[enabled ? Operation.values().length : 0];
+        this.stages = new LatencyStats[enabled ? Stage.values().length : 0];
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new LatencyStats(now);
+        }
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyStats(now);
+        }
+    }
+
+    public static VaultMetrics enabled() {
+        return new VaultMetrics(true);
+    }
+
+    public static VaultMetrics disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the start time to pass to a {@code record} method, or 0 when disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    public void record(Stage stage, long started) {
+        if (enabled) {
+            stages[stage.ordinal()].record(System.nanoTime() - started);
+        }
+    }
+
+    public void record(Operation operation, long started) {
+        if (enabled) {
+            operations[operation.ordinal()].record(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Counts a failed request; a {@link SecurityException} counts as denied, anything else as an
+     * error. The request's latency is still recorded by {@link #record(Operation, long)}.
+     */
+    public void failed(Operation operation, Throwable failure) {
+        if (enabled) {
+            operations[operation.ordinal()].failed(failure);
+        }
+    }
+
+    /**
+     * Counts a request refused because its client was over its rate limit.
+     */
+    public void throttled(Operation operation) {
+        if (enabled) {
+            operations[operation.ordinal()].throttled();
+        }
+    }
+
+    /**
+     * Counts a request refused because the server was at its concurrency limit.
+     */
+    public void shed(Operation operation) {
+        if (enabled) {
+            operations[operation.ordinal()].shed();
+        }
+    }
+
+    public LatencyStats operation(Operation operation) {
+        requireEnabled();
+        return operations[operation.ordinal()];
+    }
+
+    public LatencyStats stage(Stage stage) {
+        requireEnabled();
+        return stages[stage.ordinal()];
+    }
+
+    public synchronized void register(MBeanServer server) throws JMException {
+        requireEnabled();
+        if (this.server != null) {
+            throw new IllegalStateException("Metrics are already registered");
+        }
+        this.server = server;
+        for (Operation operation : Operation.values()) {
+            register(objectName("Operation", operation.label()), operations[operation.ordinal()]);
+        }
+        for (Stage stage : Stage.values()) {
+            register(objectName("Stage", stage.label()), stages[stage.ordinal()]);
+        }
+    }
+
+    /**
+     * Unregisters the MBeans, if they were registered.
+     */
+    @Override
+    public synchronized void close() {
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (InstanceNotFoundException | MBeanRegistrationException exception) {
+                // Already gone; nothing left to clean up.
+            }
+        }
+        registered.clear();
+        server = null;
+    }
+
+    static ObjectName objectName(String type, String name) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+    }
+
+    private void register(ObjectName name, LatencyStats stats) throws JMException {
+        server.registerMBean(stats, name);
+        registered.add(name);
+    }
+
+    private void requireEnabled() {
+        if (!enabled) {
+            throw new IllegalStateException("Metrics are disabled");
+        }
+    }
+}
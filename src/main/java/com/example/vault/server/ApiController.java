@@ -1,87 +1,724 @@
 package com.example.vault.server;
 
+import com.example.vault.audit.AuditLog;
+import com.example.vault.crypto.BlobCipher;
 import com.example.vault.crypto.CryptoEngine;
+import com.example.vault.crypto.DekCache;
 import com.example.vault.crypto.DekService;
 import com.example.vault.crypto.MasterKeyService;
+import com.example.vault.metrics.Operation;
+import com.example.vault.metrics.Stage;
+import com.example.vault.metrics.VaultMetrics;
+import com.example.vault.storage.BlobRef;
+import com.example.vault.storage.BlobStore;
+import com.example.vault.storage.ChangeFeed;
 import com.example.vault.storage.SecretRecord;
 import com.example.vault.storage.SecretRepository;
+import com.example.vault.storage.VersionConflictException;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionException;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.crypto.SecretKey;
 
+/**
+ * Entry point for every request: checks the caller's policy, then reads or writes the store and
+ * runs the envelope crypto. With {@link VaultMetrics} enabled each request is timed end to end per
+ * {@link Operation}, and its policy check, store access and crypto steps per {@link Stage}. With an
+ * {@link AuditLog} every request, whether allowed, denied, throttled or failed, is also recorded
+ * there once it ends.
+ */
 public class ApiController {
     private final SecretRepository repository;
     private final MasterKeyService masterKeyService;
     private final DekService dekService;
     private final CryptoEngine cryptoEngine;
     private final PolicyService policyService;
+    private final DekCache dekCache;
+    private final VaultMetrics metrics;
+    private final AuditLog auditLog;
+    private final BlobCipher blobCipher = new BlobCipher();
 
     public ApiController(SecretRepository repository,
             MasterKeyService masterKeyService,
             DekService dekService,
             CryptoEngine cryptoEngine,
             PolicyService policyService) {
+        this(repository, masterKeyService, dekService, cryptoEngine, policyService, DekCache.disabled());
+    }
+
+    public ApiController(SecretRepository repository,
+            MasterKeyService masterKeyService,
+            DekService dekService,
+            CryptoEngine cryptoEngine,
+            PolicyService policyService,
+            DekCache dekCache) {
+        this(repository, masterKeyService, dekService, cryptoEngine, policyService, dekCache,
+                VaultMetrics.disabled());
+    }
+
+    public ApiController(SecretRepository repository,
+            MasterKeyService masterKeyService,
+            DekService dekService,
+            CryptoEngine cryptoEngine,
+            PolicyService policyService,
+            DekCache dekCache,
+            VaultMetrics metrics) {
+        this(repository, masterKeyService, dekService, cryptoEngine, policyService, dekCache, metrics,
+                AuditLog.disabled());
+    }
+
+    public ApiController(SecretRepository repository,
+            MasterKeyService masterKeyService,
+            DekService dekService,
+            CryptoEngine cryptoEngine,
+            PolicyService policyService,
+            DekCache dekCache,
+            VaultMetrics metrics,
+            AuditLog auditLog) {
         this.repository = Objects.requireNonNull(repository, "repository");
         this.masterKeyService = Objects.requireNonNull(masterKeyService, "masterKeyService");
         this.dekService = Objects.requireNonNull(dekService, "dekService");
         this.cryptoEngine = Objects.requireNonNull(cryptoEngine, "cryptoEngine");
         this.policyService = Objects.requireNonNull(policyService, "policyService");
+        this.dekCache = Objects.requireNonNull(dekCache, "dekCache");
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+        this.auditLog = Objects.requireNonNull(auditLog, "auditLog");
+        masterKeyService.onSeal(dekCache::clear);
     }
 
     public void putSecret(String path, String secret, RequestContext context)
             throws IOException, GeneralSecurityException {
-        requireWrite(path, context);
+        AuditLog.Entry audit = auditLog.begin(Operation.PUT, context.fingerprint(), path);
+        admit(Operation.PUT, context, audit);
+        long started = metrics.start();
+        try {
+            requireWrite(path, context);
+            SecretKey masterKey = masterKeyService.requireMasterKey();
+            SecretRecord record = newRecord(path, secret, masterKey);
+            long writing = metrics.start();
+            audit.version(repository.save(record));
+            metrics.record(Stage.STORE_WRITE, writing);
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            metrics.failed(Operation.PUT, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.PUT, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * Stores {@code secret} at {@code path} only if the secret there is still at
+     * {@code expectedVersion} (0 to only create it), and returns the new version. A conflict
+     * visible up front fails before anything is encrypted; the check that counts is made when the
+     * write is committed, and fails with a {@link VersionConflictException}.
+     */
+    public int putSecret(String path, String secret, int expectedVersion, RequestContext context)
+            throws IOException, GeneralSecurityException {
+        AuditLog.Entry audit = auditLog.begin(Operation.PUT, context.fingerprint(), path);
+        admit(Operation.PUT, context, audit);
+        long started = metrics.start();
+        try {
+            requireWrite(path, context);
+            int actual = repository.get(path).map(SecretRecord::version).orElse(0);
+            if (actual != expectedVersion) {
+                throw new VersionConflictException(path, expectedVersion, actual);
+            }
+            SecretKey masterKey = masterKeyService.requireMasterKey();
+            SecretRecord record = newRecord(path, secret, masterKey);
+            long writing = metrics.start();
+            int version = repository.save(record, expectedVersion);
+            audit.version(version);
+            metrics.record(Stage.STORE_WRITE, writing);
+            return version;
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            metrics.failed(Operation.PUT, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.PUT, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * Stores everything {@code source} yields as a blob secret at {@code path}. It is sealed chunk
+     * by chunk under a new DEK into a file of its own, and only a reference to that file goes into
+     * the store, so memory use does not grow with the size of the secret.
+     */
+    public void putBlob(String path, ReadableByteChannel source, RequestContext context)
+            throws IOException, GeneralSecurityException {
+        AuditLog.Entry audit = auditLog.begin(Operation.PUT_BLOB, context.fingerprint(), path);
+        admit(Operation.PUT_BLOB, context, audit);
+        long started = metrics.start();
+        try {
+            requireWrite(path, context);
+            SecretKey masterKey = masterKeyService.requireMasterKey();
+            SecretKey dek = dekService.generateDek();
+            byte[] nonce = blobCipher.newNonce();
+            BlobRef blob;
+            try (BlobStore.Writer writer = repository.blobs().create()) {
+                long encrypting = metrics.start();
+                long size = blobCipher.encrypt(source, writer, dek, nonce, BlobCipher.DEFAULT_CHUNK_SIZE);
+                writer.commit();
+                metrics.record(Stage.ENCRYPT, encrypting);
+                blob = new BlobRef(writer.id(), size, BlobCipher.DEFAULT_CHUNK_SIZE, nonce);
+            }
+            long wrapping = metrics.start();
+            DekService.WrappedDek wrappedDek = dekService.wrapDek(dek, masterKey);
+            metrics.record(Stage.DEK_WRAP, wrapping);
+            Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+            long writing = metrics.start();
+            audit.version(repository.save(new SecretRecord(path, wrappedDek.encryptedDek(), wrappedDek.iv(),
+                    new byte[0], blob.encode(), 1, now, now)));
+            metrics.record(Stage.STORE_WRITE, writing);
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            metrics.failed(Operation.PUT_BLOB, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.PUT_BLOB, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * Opens the blob secret at {@code path} for streaming. Access, the record and its DEK are
+     * checked here, so a failure can still be reported before any content is sent; the content
+     * itself is authenticated chunk by chunk as {@link Blob#transferTo} writes it out.
+     */
+    public Blob openBlob(String path, RequestContext context) throws IOException, GeneralSecurityException {
+        AuditLog.Entry audit = auditLog.begin(Operation.GET_BLOB, context.fingerprint(), path);
+        admit(Operation.GET_BLOB, context, audit);
+        long started = metrics.start();
+        try {
+            requireRead(path, context);
+            long reading = metrics.start();
+            SecretRecord record = repository.get(path)
+                    .orElseThrow(() -> new IllegalArgumentException("No secret found for path: " + path));
+            metrics.record(Stage.STORE_READ, reading);
+            audit.version(record.version());
+            if (!record.isBlob()) {
+                throw new BadRequestException("Secret is not a blob: " + path);
+            }
+            BlobRef blob = BlobRef.of(record);
+            SecretKey dek = unwrap(record, masterKeyService.requireMasterKey());
+            return new Blob(blob, dek, repository.blobs().open(blob.id()));
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            metrics.failed(Operation.GET_BLOB, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.GET_BLOB, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * Applies every operation in {@code ops} as one atomic, durable update. Write access is checked
+     * for all paths before anything is encrypted, and a path may appear at most once.
+     */
+    public void apply(List<Op> ops, RequestContext context) throws IOException, GeneralSecurityException {
+        AuditLog.Entry audit = auditLog.begin(Operation.APPLY, context.fingerprint(), paths(ops));
+        admit(Operation.APPLY, context, audit);
+        long started = metrics.start();
+        try {
+            applyBatch(ops, context);
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            metrics.failed(Operation.APPLY, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.APPLY, started);
+            audit.end();
+        }
+    }
+
+    private void applyBatch(List<Op> ops, RequestContext context) throws IOException, GeneralSecurityException {
+        Set<String> paths = new HashSet<>();
+        List<Op.Put> puts = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        for (Op op : ops) {
+            requireWrite(op.path(), context);
+            if (!paths.add(op.path())) {
+                throw new BadRequestException("Path appears more than once in batch: " + op.path());
+            }
+            if (op instanceof Op.Put put) {
+                puts.add(put);
+            } else {
+                deletes.add(op.path());
+            }
+        }
         SecretKey masterKey = masterKeyService.requireMasterKey();
-        SecretKey dek = dekService.generateDek();
-        CryptoEngine.EncryptedSecret encryptedSecret = cryptoEngine.encryptSecret(secret, dek);
-        DekService.WrappedDek wrappedDek = dekService.wrapDek(dek, masterKey);
-        String now = Instant.now().toString();
-        SecretRecord record = new SecretRecord(
-                path,
-                wrappedDek.encryptedDek(),
-                wrappedDek.iv(),
-                encryptedSecret.iv(),
-                encryptedSecret.ciphertext(),
-                1,
-                now,
-                now);
-        repository.save(record);
+        List<SecretRecord> records;
+        try {
+            records = puts.parallelStream()
+                    .map(put -> {
+                        try {
+                            return newRecord(put.path(), put.secret(), masterKey);
+                        } catch (GeneralSecurityException exception) {
+                            throw new CompletionException(exception);
+                        }
+                    })
+                    .collect(Collectors.toList());
+        } catch (CompletionException exception) {
+            throw securityFailure(exception);
+        }
+        long writing = metrics.start();
+        repository.commit(records, deletes);
+        metrics.record(Stage.STORE_WRITE, writing);
+    }
+
+    /**
+     * The {@link GeneralSecurityException} a parallel encryption failed with. A failure on a
+     * fork-join worker can come back as a {@link CompletionException} wrapping the one thrown by
+     * the task, so the cause chain is walked; anything else is rethrown unchanged.
+     */
+    private static GeneralSecurityException securityFailure(CompletionException exception) {
+        for (Throwable cause = exception.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof GeneralSecurityException security) {
+                return security;
+            }
+            if (!(cause instanceof CompletionException)) {
+                break;
+            }
+        }
+        throw exception;
     }
 
     public String getSecret(String path, RequestContext context)
             throws IOException, GeneralSecurityException {
-        requireRead(path, context);
-        SecretRecord record = repository.get(path)
-                .orElseThrow(() -> new IllegalArgumentException("No secret found for path: " + path));
-        SecretKey masterKey = masterKeyService.requireMasterKey();
-        SecretKey dek = dekService.unwrapDek(new DekService.WrappedDek(record.encryptedDek(), record.dekIv()),
-                masterKey);
-        return cryptoEngine.decryptSecret(new CryptoEngine.EncryptedSecret(record.ciphertext(), record.secretIv()), dek);
+        AuditLog.Entry audit = auditLog.begin(Operation.GET, context.fingerprint(), path);
+        admit(Operation.GET, context, audit);
+        long started = metrics.start();
+        try {
+            requireRead(path, context);
+            long reading = metrics.start();
+            Optional<SecretRecord> record = repository.get(path);
+            metrics.record(Stage.STORE_READ, reading);
+            record.ifPresent(found -> audit.version(found.version()));
+            return decrypt(record.orElseThrow(
+                    () -> new IllegalArgumentException("No secret found for path: " + path)));
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            metrics.failed(Operation.GET, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.GET, started);
+            audit.end();
+        }
+    }
+
+    public String getSecret(String path, int version, RequestContext context)
+            throws IOException, GeneralSecurityException {
+        AuditLog.Entry audit = auditLog.begin(Operation.GET, context.fingerprint(), path);
+        admit(Operation.GET, context, audit);
+        long started = metrics.start();
+        try {
+            requireRead(path, context);
+            long reading = metrics.start();
+            Optional<SecretRecord> record = repository.get(path, version);
+            metrics.record(Stage.STORE_READ, reading);
+            record.ifPresent(found -> audit.version(found.version()));
+            return decrypt(record.orElseThrow(() -> new IllegalArgumentException(
+                    "No version " + version + " found for path: " + path)));
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            metrics.failed(Operation.GET, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.GET, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * The latest version of the secret at {@code path}, or empty when it is still
+     * {@code knownVersion}; then neither the DEK nor the secret is touched. Versions start over
+     * when a path is deleted and written again, so a cached value is only kept while its version
+     * is the current one, not while it is newer.
+     */
+    public Optional<Secret> getSecretIfNewer(String path, int knownVersion, RequestContext context)
+            throws IOException, GeneralSecurityException {
+        AuditLog.Entry audit = auditLog.begin(Operation.GET, context.fingerprint(), path);
+        admit(Operation.GET, context, audit);
+        long started = metrics.start();
+        try {
+            requireRead(path, context);
+            long reading = metrics.start();
+            SecretRecord record = repository.get(path)
+                    .orElseThrow(() -> new IllegalArgumentException("No secret found for path: " + path));
+            metrics.record(Stage.STORE_READ, reading);
+            audit.version(record.version());
+            if (record.version() == knownVersion) {
+                return Optional.empty();
+            }
+            return Optional.of(new Secret(decrypt(record), record.version()));
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            metrics.failed(Operation.GET, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.GET, started);
+            audit.end();
+        }
+    }
+
+    public List<Integer> listVersions(String path, RequestContext context) throws IOException {
+        AuditLog.Entry audit = auditLog.begin(Operation.VERSIONS, context.fingerprint(), path);
+        admit(Operation.VERSIONS, context, audit);
+        long started = metrics.start();
+        try {
+            requireRead(path, context);
+            long reading = metrics.start();
+            List<Integer> versions = repository.versions(path);
+            metrics.record(Stage.STORE_READ, reading);
+            return versions;
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.VERSIONS, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.VERSIONS, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * Sets how many superseded versions are kept for paths under {@code prefix}; requires write
+     * access to the prefix itself.
+     */
+    public void setRetention(String prefix, int versions, RequestContext context) throws IOException {
+        AuditLog.Entry audit = auditLog.begin(Operation.RETENTION, context.fingerprint(), prefix);
+        admit(Operation.RETENTION, context, audit);
+        long started = metrics.start();
+        try {
+            requireWrite(prefix, context);
+            long writing = metrics.start();
+            repository.setRetention(prefix, versions);
+            metrics.record(Stage.STORE_WRITE, writing);
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.RETENTION, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.RETENTION, started);
+            audit.end();
+        }
     }
 
     public void deleteSecret(String path, RequestContext context) throws IOException {
-        requireWrite(path, context);
-        repository.delete(path);
+        AuditLog.Entry audit = auditLog.begin(Operation.DELETE, context.fingerprint(), path);
+        admit(Operation.DELETE, context, audit);
+        long started = metrics.start();
+        try {
+            requireWrite(path, context);
+            long writing = metrics.start();
+            repository.delete(path);
+            metrics.record(Stage.STORE_WRITE, writing);
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.DELETE, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.DELETE, started);
+            audit.end();
+        }
+    }
+
+    public DekCache dekCache() {
+        return dekCache;
+    }
+
+    public VaultMetrics metrics() {
+        return metrics;
+    }
+
+    public void seal() {
+        masterKeyService.seal();
     }
 
     public List<String> listSecrets(String prefix, RequestContext context) throws IOException {
-        List<String> paths = repository.list(prefix);
-        return paths.stream()
-                .filter(path -> policyService.canRead(context.fingerprint(), path))
-                .collect(Collectors.toList());
+        AuditLog.Entry audit = auditLog.begin(Operation.LIST, context.fingerprint(), prefix);
+        admit(Operation.LIST, context, audit);
+        long started = metrics.start();
+        try {
+            long reading = metrics.start();
+            List<String> paths = repository.list(prefix);
+            metrics.record(Stage.STORE_READ, reading);
+            long checking = metrics.start();
+            List<String> readable = paths.stream()
+                    .filter(path -> policyService.canRead(context.fingerprint(), path))
+                    .collect(Collectors.toList());
+            metrics.record(Stage.POLICY_CHECK, checking);
+            return readable;
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.LIST, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.LIST, started);
+            audit.end();
+        }
     }
 
     public List<String> listKeys(String path, RequestContext context) throws IOException {
-        List<String> keys = repository.listKeys(path);
-        return keys.stream()
-                .filter(key -> policyService.canRead(context.fingerprint(), pathWithKey(path, key)))
-                .collect(Collectors.toList());
+        AuditLog.Entry audit = auditLog.begin(Operation.KEYS, context.fingerprint(), path);
+        admit(Operation.KEYS, context, audit);
+        long started = metrics.start();
+        try {
+            long reading = metrics.start();
+            List<String> keys = repository.listKeys(path);
+            metrics.record(Stage.STORE_READ, reading);
+            long checking = metrics.start();
+            List<String> readable = keys.stream()
+                    .filter(key -> policyService.canRead(context.fingerprint(), pathWithKey(path, key)))
+                    .collect(Collectors.toList());
+            metrics.record(Stage.POLICY_CHECK, checking);
+            return readable;
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.KEYS, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.KEYS, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * At most {@code limit} readable paths under {@code prefix}, continuing after the page that
+     * returned {@code cursor} ({@code null} for the first page). Paths the caller cannot read are
+     * skipped without counting against the limit.
+     */
+    public Page listSecrets(String prefix, String cursor, int limit, RequestContext context) throws IOException {
+        AuditLog.Entry audit = auditLog.begin(Operation.LIST, context.fingerprint(), prefix);
+        admit(Operation.LIST, context, audit);
+        long started = metrics.start();
+        try {
+            return page(readable(repository.iterate(prefix, decodeCursor(cursor)), context, path -> path), limit);
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.LIST, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.LIST, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * At most {@code limit} readable key names under {@code path}, continuing after the page that
+     * returned {@code cursor} ({@code null} for the first page).
+     */
+    public Page listKeys(String path, String cursor, int limit, RequestContext context) throws IOException {
+        AuditLog.Entry audit = auditLog.begin(Operation.KEYS, context.fingerprint(), path);
+        admit(Operation.KEYS, context, audit);
+        long started = metrics.start();
+        try {
+            return page(readable(repository.iterateKeys(path, decodeCursor(cursor)), context,
+                    key -> pathWithKey(path, key)), limit);
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.KEYS, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.KEYS, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * The readable paths under {@code prefix} in order, checked against the policies one at a time
+     * as the stream is consumed, so the first path is available before the last one is read.
+     * Only opening the stream is timed.
+     */
+    public Stream<String> streamSecrets(String prefix, RequestContext context) throws IOException {
+        AuditLog.Entry audit = auditLog.begin(Operation.LIST, context.fingerprint(), prefix);
+        admit(Operation.LIST, context, audit);
+        long started = metrics.start();
+        try {
+            return readable(repository.iterate(prefix, null), context, path -> path);
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.LIST, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.LIST, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * The readable key names under {@code path} in order, produced lazily like
+     * {@link #streamSecrets}.
+     */
+    public Stream<String> streamKeys(String path, RequestContext context) throws IOException {
+        AuditLog.Entry audit = auditLog.begin(Operation.KEYS, context.fingerprint(), path);
+        admit(Operation.KEYS, context, audit);
+        long started = metrics.start();
+        try {
+            return readable(repository.iterateKeys(path, null), context, key -> pathWithKey(path, key));
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.KEYS, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.KEYS, started);
+            audit.end();
+        }
+    }
+
+    /**
+     * Waits up to {@code wait} for changes to readable secrets under {@code prefix} after sequence
+     * number {@code after} (from now on when it is negative) and returns up to {@code limit} of
+     * them, filtered by the same policy check as {@link #listSecrets}. The cursor returned also
+     * covers the unreadable changes that were skipped.
+     */
+    public ChangeFeed.Batch watch(String prefix, long after, int limit, Duration wait, RequestContext context)
+            throws IOException {
+        AuditLog.Entry audit = auditLog.begin(Operation.WATCH, context.fingerprint(), prefix);
+        admit(Operation.WATCH, context, audit);
+        long started = metrics.start();
+        try {
+            long deadline = System.nanoTime() + wait.toNanos();
+            long cursor = after;
+            while (true) {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                ChangeFeed.Batch batch = repository.changes(prefix, cursor, limit, Duration.ofNanos(remaining));
+                if (batch.reset()) {
+                    return batch;
+                }
+                List<ChangeFeed.Event> readable = new ArrayList<>(batch.events().size());
+                for (ChangeFeed.Event event : batch.events()) {
+                    if (policyService.canRead(context.fingerprint(), event.path())) {
+                        readable.add(event);
+                    }
+                }
+                if (!readable.isEmpty() || System.nanoTime() >= deadline) {
+                    return new ChangeFeed.Batch(readable, batch.cursor(), false);
+                }
+                cursor = batch.cursor();
+            }
+        } catch (IOException | RuntimeException exception) {
+            metrics.failed(Operation.WATCH, exception);
+            audit.failed(exception);
+            throw exception;
+        } finally {
+            metrics.record(Operation.WATCH, started);
+            audit.end();
+        }
+    }
+
+    private static List<String> paths(List<Op> ops) {
+        List<String> paths = new ArrayList<>(ops.size());
+        for (Op op : ops) {
+            paths.add(op.path());
+        }
+        return paths;
+    }
+
+    private Stream<String> readable(Iterator<String> entries, RequestContext context,
+            UnaryOperator<String> pathOf) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries,
+                        Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false)
+                .filter(entry -> policyService.canRead(context.fingerprint(), pathOf.apply(entry)));
+    }
+
+    private static Page page(Stream<String> entries, int limit) {
+        if (limit < 1) {
+            throw new BadRequestException("Invalid limit: " + limit);
+        }
+        Iterator<String> iterator = entries.iterator();
+        List<String> page = new ArrayList<>(Math.min(limit, 1024));
+        while (page.size() < limit && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        String cursor = iterator.hasNext() ? encodeCursor(page.get(page.size() - 1)) : null;
+        return new Page(page, cursor);
+    }
+
+    private static String encodeCursor(String last) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(last.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException exception) {
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        }
+    }
+
+    private String decrypt(SecretRecord record) throws IOException, GeneralSecurityException {
+        if (record.isBlob()) {
+            throw new BadRequestException("Secret is a blob: " + record.path());
+        }
+        SecretKey masterKey = masterKeyService.requireMasterKey();
+        try (DekCache.Lease dek = dekCache.lease(record.path(), record.version(), record.dekIv(),
+                () -> unwrap(record, masterKey))) {
+            long decrypting = metrics.start();
+            String secret = cryptoEngine.decryptSecret(
+                    new CryptoEngine.EncryptedSecret(record.ciphertext(), record.secretIv()), dek.key());
+            metrics.record(Stage.DECRYPT, decrypting);
+            return secret;
+        }
+    }
+
+    private SecretKey unwrap(SecretRecord record, SecretKey masterKey) throws GeneralSecurityException {
+        long unwrapping = metrics.start();
+        SecretKey dek = dekService.unwrapDek(new DekService.WrappedDek(record.encryptedDek(), record.dekIv()),
+                masterKey);
+        metrics.record(Stage.DEK_UNWRAP, unwrapping);
+        return dek;
+    }
+
+    private SecretRecord newRecord(String path, String secret, SecretKey masterKey) throws GeneralSecurityException {
+        SecretKey dek = dekService.generateDek();
+        long encrypting = metrics.start();
+        CryptoEngine.EncryptedSecret encryptedSecret = cryptoEngine.encryptSecret(secret, dek);
+        metrics.record(Stage.ENCRYPT, encrypting);
+        long wrapping = metrics.start();
+        DekService.WrappedDek wrappedDek = dekService.wrapDek(dek, masterKey);
+        metrics.record(Stage.DEK_WRAP, wrapping);
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        return new SecretRecord(
+                path,
+                wrappedDek.encryptedDek(),
+                wrappedDek.iv(),
+                encryptedSecret.iv(),
+                encryptedSecret.ciphertext(),
+                1,
+                now,
+                now);
     }
 
     private String pathWithKey(String path, String key) {
@@ -91,18 +728,88 @@ public class ApiController {
         return path + "/" + key;
     }
 
+    /**
+     * Refuses the request up front when its client is over a rate limit for {@code operation}, so
+     * a throttled request costs one token bucket check and never reaches crypto or storage. It is
+     * still audited.
+     */
+    private void admit(Operation operation, RequestContext context, AuditLog.Entry audit) {
+        long wait = policyService.admit(context.fingerprint(), operation);
+        if (wait > 0) {
+            metrics.throttled(operation);
+            audit.throttled();
+            throw new RateLimitedException(operation, Duration.ofNanos(wait));
+        }
+    }
+
     private void requireRead(String path, RequestContext context) {
-        if (!policyService.canRead(context.fingerprint(), path)) {
+        long checking = metrics.start();
+        boolean allowed = policyService.canRead(context.fingerprint(), path);
+        metrics.record(Stage.POLICY_CHECK, checking);
+        if (!allowed) {
             throw new SecurityException("Read access denied for path: " + path);
         }
     }
 
     private void requireWrite(String path, RequestContext context) {
-        if (!policyService.canWrite(context.fingerprint(), path)) {
+        long checking = metrics.start();
+        boolean allowed = policyService.canWrite(context.fingerprint(), path);
+        metrics.record(Stage.POLICY_CHECK, checking);
+        if (!allowed) {
             throw new SecurityException("Write access denied for path: " + path);
         }
     }
 
     public record RequestContext(String fingerprint) {
     }
+
+    public record Secret(String value, int version) {
+    }
+
+    /**
+     * One page of a listing. {@code cursor} resumes the listing after the last entry, and is
+     * {@code null} once nothing readable is left.
+     */
+    public record Page(List<String> entries, String cursor) {
+    }
+
+    /**
+     * An opened blob secret, read from its file as it is written out.
+     */
+    public final class Blob implements Closeable {
+        private final BlobRef blob;
+        private final SecretKey dek;
+        private final FileChannel channel;
+
+        private Blob(BlobRef blob, SecretKey dek, FileChannel channel) {
+            this.blob = blob;
+            this.dek = dek;
+            this.channel = channel;
+        }
+
+        public long size() {
+            return blob.size();
+        }
+
+        public void transferTo(WritableByteChannel target) throws IOException, GeneralSecurityException {
+            long decrypting = metrics.start();
+            blobCipher.decrypt(channel, target, dek, blob.nonce(), blob.chunkSize(), blob.size());
+            metrics.record(Stage.DECRYPT, decrypting);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public sealed interface Op {
+        String path();
+
+        record Put(String path, String secret) implements Op {
+        }
+
+        record Delete(String path) implements Op {
+        }
+    }
 }
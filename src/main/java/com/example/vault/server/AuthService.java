@@ -4,27 +4,66 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 
+/**
+ * Turns client certificates into the SHA-256 fingerprints that policies are keyed by. Results are
+ * cached by certificate and by certificate file (path, modification time and size), so a client
+ * seen before is resolved without parsing or hashing anything.
+ */
 public class AuthService {
+    public static final int DEFAULT_MAX_IDENTITIES = 1024;
+
+    private final BoundedCache<X509Certificate, String> certificates;
+    private final BoundedCache<CertificateFile, String> files;
+
+    public AuthService() {
+        this(DEFAULT_MAX_IDENTITIES);
+    }
+
+    public AuthService(int maxIdentities) {
+        this.certificates = new BoundedCache<>(maxIdentities);
+        this.files = new BoundedCache<>(maxIdentities);
+    }
+
     public String fingerprintForCertificate(Path certificatePath) throws IOException, GeneralSecurityException {
+        BasicFileAttributes attributes = Files.readAttributes(certificatePath, BasicFileAttributes.class);
+        CertificateFile file = new CertificateFile(certificatePath.toAbsolutePath().normalize(),
+                attributes.lastModifiedTime(), attributes.size());
+        String cached = files.get(file);
+        if (cached != null) {
+            return cached;
+        }
         try (InputStream input = Files.newInputStream(certificatePath)) {
             CertificateFactory factory = CertificateFactory.getInstance("X.509");
             X509Certificate certificate = (X509Certificate) factory.generateCertificate(input);
-            return fingerprint(certificate);
+            String fingerprint = fingerprint(certificate);
+            files.put(file, fingerprint);
+            return fingerprint;
         }
     }
 
     public String fingerprint(X509Certificate certificate) throws GeneralSecurityException {
+        String cached = certificates.get(certificate);
+        if (cached != null) {
+            return cached;
+        }
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
         byte[] hash = digest.digest(certificate.getEncoded());
         StringBuilder builder = new StringBuilder(hash.length * 2);
         for (byte value : hash) {
             builder.append(String.format("%02X", value));
         }
-        return builder.toString();
+        String fingerprint = builder.toString();
+        certificates.put(certificate, fingerprint);
+        return fingerprint;
+    }
+
+    private record CertificateFile(Path path, FileTime modified, long size) {
     }
 }
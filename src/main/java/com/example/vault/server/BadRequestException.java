@@ -0,0 +1,13 @@
+package com.example.vault.server;
+
+/**
+ * A request that is wrong as sent, such as a malformed header, query parameter or cursor, or a
+ * plain read of a blob secret; answered with 400 rather than the 404 of a missing secret.
+ */
+class BadRequestException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    BadRequestException(String message) {
+        super(message);
+    }
+}
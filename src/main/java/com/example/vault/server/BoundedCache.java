@@ -0,0 +1,73 @@
+package com.example.vault.server;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent map holding at most {@code maxEntries} entries, for small values that are cheap to
+ * compute again. Lookups take no lock; they only mark the entry as used. An insert that finds the
+ * cache full evicts one entry by the clock algorithm: it goes round the keys in insertion order,
+ * giving each used entry a second chance and clearing its mark, and drops the first unused one.
+ * So entries that keep being looked up survive however many other keys pass through. A cache of
+ * size 0 keeps nothing.
+ */
+final class BoundedCache<K, V> {
+    private final int maxEntries;
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final Queue<K> clock = new ArrayDeque<>();
+
+    BoundedCache(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    V get(K key) {
+        Entry<V> entry = maxEntries == 0 ? null : entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.used) {
+            entry.used = true;
+        }
+        return entry.value;
+    }
+
+    synchronized void put(K key, V value) {
+        if (maxEntries == 0) {
+            return;
+        }
+        if (entries.put(key, new Entry<>(value)) != null) {
+            return;
+        }
+        clock.add(key);
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        while (true) {
+            K key = clock.remove();
+            Entry<V> entry = entries.get(key);
+            if (!entry.used) {
+                entries.remove(key);
+                return;
+            }
+            entry.used = false;
+            clock.add(key);
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private volatile boolean used;
+
+        private Entry(V value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.vault.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Deterministic automaton over a set of path globs, built once when policies are loaded. A glob is
+ * matched as a whole and {@code *} stands for any run of characters, including {@code /}; every
+ * other character is literal. Like the {@code .*} the globs used to be translated to, a {@code *}
+ * does not match line terminators.
+ *
+ * <p>Characters are folded into classes (one per character that appears literally in some glob,
+ * plus one for everything else), so a check is one table lookup per character of the path and
+ * allocates nothing.
+ */
+final class GlobMatcher {
+    private static final char WILDCARD = '*';
+    private static final String LINE_TERMINATORS = "\n\r\u0085\u2028\u2029";
+    private static final int DEAD = -1;
+    private static final int MAX_STATES = 4096;
+    private static final GlobMatcher NONE = new GlobMatcher(new char[0], new int[1], new boolean[] {false});
+
+    private final char[] alphabet;
+    private final int[] asciiClasses = new int[128];
+    private final int classCount;
+    private final int[] transitions;
+    private final boolean[] accepting;
+
+    private GlobMatcher(char[] alphabet, int[] transitions, boolean[] accepting) {
+        this.alphabet = alphabet;
+        this.classCount = alphabet.length + 1;
+        this.transitions = transitions;
+        this.accepting = accepting;
+        for (int i = 0; i < alphabet.length; i++) {
+            if (alphabet[i] < asciiClasses.length) {
+                asciiClasses[alphabet[i]] = i + 1;
+            }
+        }
+    }
+
+    static GlobMatcher compile(Collection<String> globs) {
+        if (globs.isEmpty()) {
+            return NONE;
+        }
+        return new Builder(globs).build();
+    }
+
+    boolean matches(String path) {
+        int state = 0;
+        for (int i = 0; i < path.length(); i++) {
+            state = transitions[state * classCount + classOf(path.charAt(i))];
+            if (state == DEAD) {
+                return false;
+            }
+        }
+        return accepting[state];
+    }
+
+    private int classOf(char value) {
+        if (value < asciiClasses.length) {
+            return asciiClasses[value];
+        }
+        int index = Arrays.binarySearch(alphabet, value);
+        return index >= 0 ? index + 1 : 0;
+    }
+
+    /**
+     * Subset construction over the position automaton of all globs: NFA state {@code s} is "the
+     * next character to match is {@code pattern[s]}", and the position after the last character
+     * of a glob is accepting.
+     */
+    private static final class Builder {
+        private final StringBuilder positions = new StringBuilder();
+        private final BitSet ends = new BitSet();
+        private final char[] alphabet;
+
+        private Builder(Collection<String> globs) {
+            TreeSet<Character> literals = new TreeSet<>();
+            for (char terminator : LINE_TERMINATORS.toCharArray()) {
+                literals.add(terminator);
+            }
+            for (String glob : globs) {
+                for (char value : glob.toCharArray()) {
+                    positions.append(value);
+                    if (value != WILDCARD) {
+                        literals.add(value);
+                    }
+                }
+                ends.set(positions.length());
+                positions.append('\0');
+            }
+            alphabet = new char[literals.size()];
+            int index = 0;
+            for (char literal : literals) {
+                alphabet[index++] = literal;
+            }
+        }
+
+        private GlobMatcher build() {
+            int classCount = alphabet.length + 1;
+            BitSet start = new BitSet();
+            for (int position = 0; position < positions.length(); position = ends.nextSetBit(position) + 1) {
+                start.set(position);
+            }
+            closure(start);
+            Map<BitSet, Integer> ids = new HashMap<>();
+            List<BitSet> states = new ArrayList<>();
+            ids.put(start, 0);
+            states.add(start);
+            List<int[]> rows = new ArrayList<>();
+            for (int current = 0; current < states.size(); current++) {
+                if (states.size() > MAX_STATES) {
+                    throw new IllegalArgumentException("Policy patterns are too complex to compile");
+                }
+                int[] row = new int[classCount];
+                for (int characterClass = 0; characterClass < classCount; characterClass++) {
+                    BitSet next = step(states.get(current), characterClass);
+                    if (next.isEmpty()) {
+                        row[characterClass] = DEAD;
+                        continue;
+                    }
+                    Integer id = ids.get(next);
+                    if (id == null) {
+                        id = states.size();
+                        ids.put(next, id);
+                        states.add(next);
+                    }
+                    row[characterClass] = id;
+                }
+                rows.add(row);
+            }
+            int[] transitions = new int[rows.size() * classCount];
+            boolean[] accepting = new boolean[rows.size()];
+            for (int state = 0; state < rows.size(); state++) {
+                System.arraycopy(rows.get(state), 0, transitions, state * classCount, classCount);
+                accepting[state] = states.get(state).intersects(ends);
+            }
+            return new GlobMatcher(alphabet, transitions, accepting);
+        }
+
+        private BitSet step(BitSet current, int characterClass) {
+            char value = characterClass == 0 ? 0 : alphabet[characterClass - 1];
+            boolean terminator = characterClass != 0 && LINE_TERMINATORS.indexOf(value) >= 0;
+            BitSet next = new BitSet();
+            for (int position = current.nextSetBit(0); position >= 0; position = current.nextSetBit(position + 1)) {
+                if (ends.get(position)) {
+                    continue;
+                }
+                char expected = positions.charAt(position);
+                if (expected == WILDCARD) {
+                    if (!terminator) {
+                        next.set(position);
+                    }
+                } else if (characterClass != 0 && expected == value) {
+                    next.set(position + 1);
+                }
+            }
+            closure(next);
+            return next;
+        }
+
+        private void closure(BitSet states) {
+            for (int position = states.nextSetBit(0); position >= 0; position = states.nextSetBit(position + 1)) {
+                if (!ends.get(position) && positions.charAt(position) == WILDCARD) {
+                    states.set(position + 1);
+                }
+            }
+        }
+    }
+}
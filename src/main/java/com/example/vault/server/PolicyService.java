@@ -1,10 +1,16 @@
 package com.example.vault.server;
 
+import com.example.vault.metrics.Operation;
+
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -14,31 +20,131 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Read and write permissions per certificate fingerprint, loaded from a JSON policy file.
+ *
+ * <p>Decisions are cached per fingerprint, path and operation, so a path checked before costs one
+ * map lookup. The parsed policies and their decision cache are published together as one
+ * snapshot. The file's modification time is checked at most once per reload interval, and a
+ * changed file replaces the snapshot in a single step, so no check mixes old and new policies or
+ * sees a decision made under the old ones.
+ *
+ * <p>A policy may also carry rate limits, as {@code "limits": {"get": "100/s", "*": "1000/m"}}:
+ * one token bucket per operation label plus an optional one for all operations together. The
+ * buckets belong to the snapshot, so a changed policy file starts them over full.
+ */
 public class PolicyService {
+    public static final int DEFAULT_MAX_DECISIONS = 10_000;
+    public static final Duration DEFAULT_RELOAD_INTERVAL = Duration.ofSeconds(1);
+
     private static final Pattern FINGERPRINT_PATTERN = Pattern.compile("\"fingerprint\"\\s*:\\s*\"([^\"]+)\"");
     private static final Pattern READ_PATTERN = Pattern.compile("\"read\"\\s*:\\s*\\[(.*?)]", Pattern.DOTALL);
     private static final Pattern WRITE_PATTERN = Pattern.compile("\"write\"\\s*:\\s*\\[(.*?)]", Pattern.DOTALL);
+    private static final Pattern LIMITS_PATTERN = Pattern.compile("\"limits\"\\s*:\\s*\\{(.*?)}", Pattern.DOTALL);
+    private static final Pattern LIMIT_PATTERN = Pattern.compile("\"([^\"]+)\"\\s*:\\s*\"([^\"]*)\"");
+    private static final String ALL_OPERATIONS = "*";
 
-    private final Map<String, Policy> policies;
+    private final Path policiesPath;
+    private final int maxDecisions;
+    private final long reloadIntervalNanos;
+    private volatile Snapshot snapshot;
+    private volatile long nextCheck;
 
     public PolicyService(Path policiesPath) throws IOException {
-        Objects.requireNonNull(policiesPath, "policiesPath");
-        if (!Files.exists(policiesPath)) {
-            this.policies = Collections.emptyMap();
-        } else {
-            String raw = Files.readString(policiesPath);
-            this.policies = parsePolicies(raw);
+        this(policiesPath, DEFAULT_MAX_DECISIONS, DEFAULT_RELOAD_INTERVAL);
+    }
+
+    /**
+     * @param maxDecisions how many decisions to cache; 0 evaluates every check
+     * @param reloadInterval how often to look for a changed policy file; zero checks on every call
+     */
+    public PolicyService(Path policiesPath, int maxDecisions, Duration reloadInterval) throws IOException {
+        this.policiesPath = Objects.requireNonNull(policiesPath, "policiesPath");
+        if (maxDecisions < 0) {
+            throw new IllegalArgumentException("maxDecisions must not be negative");
         }
+        this.maxDecisions = maxDecisions;
+        this.reloadIntervalNanos = Objects.requireNonNull(reloadInterval, "reloadInterval").toNanos();
+        this.snapshot = load();
+        this.nextCheck = System.nanoTime() + reloadIntervalNanos;
     }
 
     public boolean canRead(String fingerprint, String path) {
-        Policy policy = policies.get(fingerprint);
-        return policy != null && policy.matchesRead(path);
+        return decide(fingerprint, path, false);
     }
 
     public boolean canWrite(String fingerprint, String path) {
-        Policy policy = policies.get(fingerprint);
-        return policy != null && policy.matchesWrite(path);
+        return decide(fingerprint, path, true);
+    }
+
+    /**
+     * Takes a token from the rate limits of {@code fingerprint} for {@code operation}. Returns 0
+     * when the request may go ahead, otherwise the nanoseconds until it is worth retrying. A
+     * fingerprint without limits is never throttled.
+     */
+    public long admit(String fingerprint, Operation operation) {
+        Policy policy = current().policies().get(fingerprint);
+        return policy == null ? 0 : policy.admit(operation, System.nanoTime());
+    }
+
+    /**
+     * Reads the policy file again and swaps in the new policies with an empty decision cache.
+     */
+    public synchronized void reload() throws IOException {
+        snapshot = load();
+        nextCheck = System.nanoTime() + reloadIntervalNanos;
+    }
+
+    private boolean decide(String fingerprint, String path, boolean write) {
+        Snapshot current = current();
+        Decision key = new Decision(fingerprint, path, write);
+        Boolean cached = current.decisions().get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Policy policy = current.policies().get(fingerprint);
+        boolean allowed = policy != null && (write ? policy.matchesWrite(path) : policy.matchesRead(path));
+        current.decisions().put(key, allowed);
+        return allowed;
+    }
+
+    /**
+     * The published snapshot, replaced first when the reload interval has passed and the file has
+     * changed since it was loaded. A file that cannot be read keeps the policies already loaded.
+     */
+    private Snapshot current() {
+        if (System.nanoTime() - nextCheck < 0) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (System.nanoTime() - nextCheck >= 0) {
+                nextCheck = System.nanoTime() + reloadIntervalNanos;
+                try {
+                    if (!Objects.equals(modifiedTime(), snapshot.modified())) {
+                        snapshot = load();
+                    }
+                } catch (IOException | IllegalArgumentException exception) {
+                    // Keep serving the last policies that could be read.
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    private Snapshot load() throws IOException {
+        FileTime modified = modifiedTime();
+        Map<String, Policy> policies = modified == null
+                ? Collections.emptyMap()
+                : parsePolicies(Files.readString(policiesPath));
+        return new Snapshot(policies, modified, new BoundedCache<>(maxDecisions));
+    }
+
+    private FileTime modifiedTime() throws IOException {
+        try {
+            return Files.getLastModifiedTime(policiesPath);
+        } catch (NoSuchFileException exception) {
+            return null;
+        }
     }
 
     private Map<String, Policy> parsePolicies(String raw) {
@@ -52,7 +158,7 @@ public class PolicyService {
             String fingerprint = fingerprintMatcher.group(1).trim();
             Set<String> read = extractPermissions(object, READ_PATTERN);
             Set<String> write = extractPermissions(object, WRITE_PATTERN);
-            parsed.put(fingerprint, new Policy(read, write));
+            parsed.put(fingerprint, new Policy(read, write, extractLimits(object)));
         }
         return parsed;
     }
@@ -65,6 +171,19 @@ public class PolicyService {
         return parseStringArray(matcher.group(1));
     }
 
+    private Map<String, String> extractLimits(String object) {
+        Matcher matcher = LIMITS_PATTERN.matcher(object);
+        if (!matcher.find()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> limits = new HashMap<>();
+        Matcher entry = LIMIT_PATTERN.matcher(matcher.group(1));
+        while (entry.find()) {
+            limits.put(entry.group(1).trim(), entry.group(2));
+        }
+        return limits;
+    }
+
     private Set<String> parseStringArray(String content) {
         Set<String> values = new HashSet<>();
         for (String token : content.split(",")) {
@@ -111,46 +230,63 @@ public class PolicyService {
         return objects;
     }
 
-    private static class Policy {
-        private final Set<String> read;
-        private final Set<String> write;
+    private record Snapshot(Map<String, Policy> policies, FileTime modified, BoundedCache<Decision, Boolean> decisions) {
+    }
 
-        private Policy(Set<String> read, Set<String> write) {
-            this.read = read;
-            this.write = write;
-        }
+    private record Decision(String fingerprint, String path, boolean write) {
+    }
 
-        private boolean matchesRead(String path) {
-            return matchesAny(read, path);
-        }
+    private static class Policy {
+        private final GlobMatcher read;
+        private final GlobMatcher write;
+        private final Map<Operation, TokenBucket> limits = new EnumMap<>(Operation.class);
+        private final TokenBucket overall;
 
-        private boolean matchesWrite(String path) {
-            return matchesAny(write, path);
+        private Policy(Set<String> read, Set<String> write, Map<String, String> limits) {
+            this.read = GlobMatcher.compile(read);
+            this.write = GlobMatcher.compile(write);
+            TokenBucket all = null;
+            for (Map.Entry<String, String> limit : limits.entrySet()) {
+                TokenBucket bucket = TokenBucket.parse(limit.getValue());
+                if (ALL_OPERATIONS.equals(limit.getKey())) {
+                    all = bucket;
+                } else {
+                    this.limits.put(operation(limit.getKey()), bucket);
+                }
+            }
+            this.overall = all;
         }
 
-        private boolean matchesAny(Set<String> patterns, String path) {
-            for (String pattern : patterns) {
-                if (matchesPattern(pattern, path)) {
-                    return true;
+        private static Operation operation(String label) {
+            for (Operation operation : Operation.values()) {
+                if (operation.label().equals(label)) {
+                    return operation;
                 }
             }
-            return false;
+            throw new IllegalArgumentException("Unknown operation in rate limits: " + label);
         }
 
-        private boolean matchesPattern(String pattern, String path) {
-            StringBuilder regex = new StringBuilder();
-            regex.append('^');
-            for (char value : pattern.toCharArray()) {
-                if (value == '*') {
-                    regex.append(".*");
-                } else if (".[]{}()\\^$|+?".indexOf(value) >= 0) {
-                    regex.append('\\').append(value);
-                } else {
-                    regex.append(value);
+        private long admit(Operation operation, long now) {
+            TokenBucket bucket = limits.get(operation);
+            if (bucket != null) {
+                long wait = bucket.tryTake(now);
+                if (wait > 0) {
+                    return wait;
                 }
             }
-            regex.append('$');
-            return path.matches(regex.toString());
+            long wait = overall == null ? 0 : overall.tryTake(now);
+            if (wait > 0 && bucket != null) {
+                bucket.giveBack();
+            }
+            return wait;
+        }
+
+        private boolean matchesRead(String path) {
+            return read.matches(path);
+        }
+
+        private boolean matchesWrite(String path) {
+            return write.matches(path);
         }
     }
 }
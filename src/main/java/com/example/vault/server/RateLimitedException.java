@@ -0,0 +1,24 @@
+package com.example.vault.server;
+
+import com.example.vault.metrics.Operation;
+
+import java.time.Duration;
+
+/**
+ * A request refused because its client used up its rate limit for the operation; it may retry
+ * after {@link #retryAfter()}.
+ */
+public class RateLimitedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    public RateLimitedException(Operation operation, Duration retryAfter) {
+        super("Rate limit exceeded for " + operation.label() + "; retry after " + retryAfter.toMillis() + " ms");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.vault.server;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A token bucket holding up to {@code permits} tokens and refilled at {@code permits} per period.
+ * Instead of a token count and a refill time it keeps the single instant at which the bucket will
+ * be full again (the generic cell rate algorithm), so taking a token is one compare-and-set and
+ * callers never block each other.
+ */
+final class TokenBucket {
+    private static final Pattern RATE = Pattern.compile("\\s*(\\d+)\\s*/\\s*([smh])\\s*");
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    TokenBucket(long permits, Duration period) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        this.intervalNanos = Math.max(1, period.toNanos() / permits);
+        this.burstNanos = intervalNanos * permits;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Parses a rate such as {@code 100/s}, {@code 600/m} or {@code 1000/h}.
+     */
+    static TokenBucket parse(String rate) {
+        Matcher matcher = RATE.matcher(rate);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid rate: " + rate);
+        }
+        Duration period = switch (matcher.group(2)) {
+            case "s" -> Duration.ofSeconds(1);
+            case "m" -> Duration.ofMinutes(1);
+            default -> Duration.ofHours(1);
+        };
+        return new TokenBucket(Long.parseLong(matcher.group(1)), period);
+    }
+
+    /**
+     * Takes a token and returns 0, or returns how many nanoseconds to wait until one is available
+     * and takes nothing.
+     */
+    long tryTake(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - now > 0 ? current : now) + intervalNanos;
+            long wait = next - now - burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a token taken by {@link #tryTake} that ended up unused, for instance because another
+     * limit refused the request.
+     */
+    void giveBack() {
+        fullAt.addAndGet(-intervalNanos);
+    }
+}
@@ -0,0 +1,578 @@
+package com.example.vault.server;
+
+import com.example.vault.metrics.Operation;
+import com.example.vault.storage.ChangeFeed;
+import com.example.vault.storage.VersionConflictException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * HTTPS front end for {@link ApiController}. Clients must present a certificate signed by (or
+ * equal to) an entry of the trust store; its SHA-256 fingerprint is the request identity.
+ *
+ * <pre>
+ * PUT    /secrets/{path}         body is the secret value
+ * PUT    /secrets/{path}?blob    body is streamed into a blob secret
+ * PUT    /secrets/{path}         with If-Match: "N", only while the secret is at version N, and
+ *                                with If-None-Match: *, only while there is none; 412 otherwise
+ * GET    /secrets/{path}         the ETag is the version; with If-None-Match: "N", 304 while the
+ *                                secret is still at version N
+ * GET    /secrets/{path}?blob    a blob secret, streamed as application/octet-stream
+ * GET    /secrets/{path}?version=N  an older version, while it is retained
+ * DELETE /secrets/{path}
+ * LIST   /secrets/{prefix}       paths under the prefix, one per line, streamed as they are found
+ * LIST   /secrets/{path}?keys    immediate key names under the path, streamed the same way
+ * GET    /secrets/{prefix}?watch[&after=S][&wait=T][&limit=N]  long-polls up to T seconds for
+ *        changes after sequence number S, one "sequence put|delete version path" line each; the
+ *        Vault-Cursor header continues the watch, and Vault-Reset says changes were missed
+ * GET    /secrets/{prefix}?watch&stream[&after=S]  the same changes pushed as they happen, with a
+ *        "cursor idle" line when nothing happened for a while and "cursor reset" after a gap
+ * LIST   /secrets/{prefix}?limit=N[&cursor=C]       one page of paths; the Vault-Cursor response
+ * LIST   /secrets/{path}?keys&limit=N[&cursor=C]    header, when present, continues the listing
+ * LIST   /secrets/{path}?versions  readable versions of the secret, oldest first
+ * </pre>
+ *
+ * <p>A client over a rate limit of its policy gets 429 with a Retry-After header. With a
+ * concurrency limit, a request arriving while that many are in progress gets 503 and
+ * Retry-After: 1 without being queued.
+ */
+public class VaultServer implements Closeable {
+    private static final String SECRETS_CONTEXT = "/secrets/";
+    private static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    private static final String CURSOR_HEADER = "Vault-Cursor";
+    private static final String RESET_HEADER = "Vault-Reset";
+    private static final int DEFAULT_PAGE_LIMIT = 1000;
+    private static final Duration DEFAULT_WATCH_WAIT = Duration.ofSeconds(30);
+    private static final Duration MAX_WATCH_WAIT = Duration.ofSeconds(300);
+
+    private final HttpsServer server;
+    private final ExecutorService executor;
+    private final ApiController apiController;
+    private final AuthService authService;
+    private final int maxConcurrentRequests;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean closed;
+
+    public VaultServer(InetSocketAddress address,
+            SSLContext sslContext,
+            ApiController apiController,
+            AuthService authService) throws IOException {
+        this(address, sslContext, apiController, authService, 0);
+    }
+
+    /**
+     * @param maxConcurrentRequests how many requests may be in progress at once, 0 for no limit;
+     *        a request beyond it is refused with 503 straight away instead of waiting for a slot
+     */
+    public VaultServer(InetSocketAddress address,
+            SSLContext sslContext,
+            ApiController apiController,
+            AuthService authService,
+            int maxConcurrentRequests) throws IOException {
+        if (maxConcurrentRequests < 0) {
+            throw new IllegalArgumentException("maxConcurrentRequests must not be negative");
+        }
+        this.apiController = Objects.requireNonNull(apiController, "apiController");
+        this.authService = Objects.requireNonNull(authService, "authService");
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.server = HttpsServer.create(address, 0);
+        this.executor = newRequestExecutor();
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext) {
+            @Override
+            public void configure(HttpsParameters params) {
+                SSLParameters parameters = getSSLContext().getDefaultSSLParameters();
+                parameters.setProtocols(PROTOCOLS);
+                parameters.setNeedClientAuth(true);
+                params.setSSLParameters(parameters);
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(SECRETS_CONTEXT, this::handle);
+    }
+
+    public static SSLContext sslContext(Path keyStorePath, Path trustStorePath, char[] password)
+            throws IOException, GeneralSecurityException {
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(loadKeyStore(keyStorePath, password), password);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(loadKeyStore(trustStorePath, password));
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Admits the request under the concurrency limit and serves it. Watches are not counted: they
+     * spend nearly all their time parked waiting for changes.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Operation operation = operation(exchange);
+            boolean counted = maxConcurrentRequests > 0 && operation != null && operation != Operation.WATCH;
+            if (counted && inFlight.incrementAndGet() > maxConcurrentRequests) {
+                inFlight.decrementAndGet();
+                apiController.metrics().shed(operation);
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "Server is busy");
+                return;
+            }
+            try {
+                serve(exchange);
+            } finally {
+                if (counted) {
+                    inFlight.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(SECRETS_CONTEXT.length());
+        ApiController.RequestContext context;
+        try {
+            context = new ApiController.RequestContext(fingerprint((HttpsExchange) exchange));
+        } catch (SSLPeerUnverifiedException | GeneralSecurityException exception) {
+            respond(exchange, 401, "Client certificate required");
+            return;
+        }
+        try {
+            dispatch(exchange, path, context);
+        } catch (BadRequestException exception) {
+            respond(exchange, 400, exception.getMessage());
+        } catch (SecurityException exception) {
+            respond(exchange, 403, exception.getMessage());
+        } catch (RateLimitedException exception) {
+            long seconds = Math.max(1, (exception.retryAfter().toMillis() + 999) / 1000);
+            exchange.getResponseHeaders().set("Retry-After", Long.toString(seconds));
+            respond(exchange, 429, exception.getMessage());
+        } catch (VersionConflictException exception) {
+            exchange.getResponseHeaders().set("ETag", etag(exception.actualVersion()));
+            respond(exchange, 412, exception.getMessage());
+        } catch (IllegalArgumentException exception) {
+            respond(exchange, 404, exception.getMessage());
+        } catch (IllegalStateException exception) {
+            respond(exchange, 503, exception.getMessage());
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            respond(exchange, 500, "Internal error");
+        }
+    }
+
+    private void dispatch(HttpExchange exchange, String path, ApiController.RequestContext context)
+            throws IOException, GeneralSecurityException {
+        switch (exchange.getRequestMethod()) {
+            case "PUT" -> {
+                if (parameters(exchange.getRequestURI().getQuery()).containsKey("blob")) {
+                    try (InputStream input = exchange.getRequestBody()) {
+                        apiController.putBlob(path, Channels.newChannel(input), context);
+                    }
+                    respond(exchange, 204, null);
+                    return;
+                }
+                String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                if (ifMatch == null && ifNoneMatch == null) {
+                    apiController.putSecret(path, readBody(exchange), context);
+                    respond(exchange, 204, null);
+                    return;
+                }
+                if (ifMatch != null && ifNoneMatch != null
+                        || ifNoneMatch != null && !"*".equals(ifNoneMatch.strip())) {
+                    respond(exchange, 400, "Use either If-Match: \"<version>\" or If-None-Match: *");
+                    return;
+                }
+                int expected = ifMatch != null ? parseEtag(ifMatch) : 0;
+                int version = apiController.putSecret(path, readBody(exchange), expected, context);
+                exchange.getResponseHeaders().set("ETag", etag(version));
+                respond(exchange, 204, null);
+            }
+            case "GET" -> {
+                Map<String, String> parameters = parameters(exchange.getRequestURI().getQuery());
+                if (parameters.containsKey("blob")) {
+                    sendBlob(exchange, path, context);
+                    return;
+                }
+                if (parameters.containsKey("watch")) {
+                    watch(exchange, path, parameters, context);
+                    return;
+                }
+                if (parameters.containsKey("version")) {
+                    respond(exchange, 200,
+                            apiController.getSecret(path, parseVersion(parameters.get("version")), context));
+                    return;
+                }
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                if (ifNoneMatch != null && ("*".equals(ifNoneMatch.strip()) || ifNoneMatch.contains(","))) {
+                    respond(exchange, 400, "Use If-None-Match: \"<version>\" with a single version");
+                    return;
+                }
+                int known = ifNoneMatch == null ? 0 : parseEtag(ifNoneMatch);
+                Optional<ApiController.Secret> secret = apiController.getSecretIfNewer(path, known, context);
+                if (secret.isEmpty()) {
+                    exchange.getResponseHeaders().set("ETag", etag(known));
+                    respond(exchange, 304, null);
+                    return;
+                }
+                exchange.getResponseHeaders().set("ETag", etag(secret.get().version()));
+                respond(exchange, 200, secret.get().value());
+            }
+            case "DELETE" -> {
+                apiController.deleteSecret(path, context);
+                respond(exchange, 204, null);
+            }
+            case "LIST" -> {
+                Map<String, String> parameters = parameters(exchange.getRequestURI().getQuery());
+                boolean keys = parameters.containsKey("keys");
+                if (parameters.containsKey("versions")) {
+                    respond(exchange, 200, lines(apiController.listVersions(path, context)));
+                } else if (parameters.containsKey("limit") || parameters.containsKey("cursor")) {
+                    int limit = parseLimit(parameters.getOrDefault("limit", String.valueOf(DEFAULT_PAGE_LIMIT)));
+                    String cursor = parameters.get("cursor");
+                    ApiController.Page page = keys
+                            ? apiController.listKeys(path, cursor, limit, context)
+                            : apiController.listSecrets(path, cursor, limit, context);
+                    if (page.cursor() != null) {
+                        exchange.getResponseHeaders().set(CURSOR_HEADER, page.cursor());
+                    }
+                    respond(exchange, 200, lines(page.entries()));
+                } else {
+                    try (Stream<String> entries = keys
+                            ? apiController.streamKeys(path, context)
+                            : apiController.streamSecrets(path, context)) {
+                        streamLines(exchange, entries);
+                    }
+                }
+            }
+            default -> {
+                exchange.getResponseHeaders().set("Allow", "PUT, GET, DELETE, LIST");
+                respond(exchange, 405, "Method not allowed");
+            }
+        }
+    }
+
+    private String fingerprint(HttpsExchange exchange) throws SSLPeerUnverifiedException, GeneralSecurityException {
+        Certificate[] chain = exchange.getSSLSession().getPeerCertificates();
+        return authService.fingerprint((X509Certificate) chain[0]);
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream input = exchange.getRequestBody()) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Streams a blob secret. Everything that can be refused is checked before the status line goes
+     * out; a chunk that fails authentication after that cuts the response short of its declared
+     * length, which the client sees as a failed transfer rather than a shorter secret.
+     */
+    private void sendBlob(HttpExchange exchange, String path, ApiController.RequestContext context)
+            throws IOException, GeneralSecurityException {
+        try (ApiController.Blob blob = apiController.openBlob(path, context)) {
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, blob.size() == 0 ? -1 : blob.size());
+            try (OutputStream output = exchange.getResponseBody()) {
+                blob.transferTo(Channels.newChannel(output));
+            }
+        }
+    }
+
+    private void watch(HttpExchange exchange, String prefix, Map<String, String> parameters,
+            ApiController.RequestContext context) throws IOException {
+        long after = parameters.containsKey("after") ? parseSequence(parameters.get("after")) : -1;
+        int limit = parseLimit(parameters.getOrDefault("limit", String.valueOf(DEFAULT_PAGE_LIMIT)));
+        Duration wait = parameters.containsKey("wait")
+                ? Duration.ofSeconds(parseWait(parameters.get("wait")))
+                : DEFAULT_WATCH_WAIT;
+        if (wait.compareTo(MAX_WATCH_WAIT) > 0) {
+            wait = MAX_WATCH_WAIT;
+        }
+        if (!parameters.containsKey("stream")) {
+            ChangeFeed.Batch batch = apiController.watch(prefix, after, limit, wait, context);
+            exchange.getResponseHeaders().set(CURSOR_HEADER, Long.toString(batch.cursor()));
+            if (batch.reset()) {
+                exchange.getResponseHeaders().set(RESET_HEADER, "true");
+            }
+            respond(exchange, 200, lines(events(batch)));
+            return;
+        }
+        // The first batch is read before the status goes out, so a bad request still gets an error.
+        ChangeFeed.Batch batch = apiController.watch(prefix, after, limit, Duration.ZERO, context);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            while (!closed) {
+                if (batch.reset()) {
+                    writer.write(batch.cursor() + " reset\n");
+                } else if (batch.events().isEmpty()) {
+                    writer.write(batch.cursor() + " idle\n");
+                }
+                for (String line : events(batch)) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+                writer.flush();
+                batch = nextBatch(prefix, batch.cursor(), limit, wait, context);
+            }
+        } catch (IOException exception) {
+            // The client went away; there is nobody left to tell.
+        }
+    }
+
+    /**
+     * The next batch of a streamed watch. Once the stream is open a rate limit can no longer be
+     * answered with 429, so a throttled watcher is held back until it may read again.
+     */
+    private ChangeFeed.Batch nextBatch(String prefix, long after, int limit, Duration wait,
+            ApiController.RequestContext context) throws IOException {
+        while (true) {
+            try {
+                return apiController.watch(prefix, after, limit, wait, context);
+            } catch (RateLimitedException exception) {
+                try {
+                    Thread.sleep(exception.retryAfter().toMillis() + 1);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttled");
+                }
+            }
+        }
+    }
+
+    /**
+     * The operation a request will run, for admission control, or {@code null} for a method the
+     * API does not serve.
+     */
+    private static Operation operation(HttpExchange exchange) {
+        Map<String, String> parameters = parameters(exchange.getRequestURI().getQuery());
+        return switch (exchange.getRequestMethod()) {
+            case "PUT" -> parameters.containsKey("blob") ? Operation.PUT_BLOB : Operation.PUT;
+            case "GET" -> parameters.containsKey("blob") ? Operation.GET_BLOB
+                    : parameters.containsKey("watch") ? Operation.WATCH
+                    : Operation.GET;
+            case "DELETE" -> Operation.DELETE;
+            case "LIST" -> parameters.containsKey("versions") ? Operation.VERSIONS
+                    : parameters.containsKey("keys") ? Operation.KEYS
+                    : Operation.LIST;
+            default -> null;
+        };
+    }
+
+    /**
+     * One {@code sequence type version path} line per event.
+     */
+    private static List<String> events(ChangeFeed.Batch batch) {
+        List<String> lines = new ArrayList<>(batch.events().size());
+        for (ChangeFeed.Event event : batch.events()) {
+            lines.add(event.sequence() + " " + event.type().name().toLowerCase(Locale.ROOT) + " " + event.version()
+                    + " " + event.path());
+        }
+        return lines;
+    }
+
+    /**
+     * The version in an entity tag as {@link #etag} writes it. A weak tag names the same version,
+     * since each version of a secret has one value.
+     */
+    private static int parseEtag(String value) {
+        String tag = value.strip();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() < 2 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+            throw new BadRequestException("Invalid entity tag: " + value);
+        }
+        return parseVersion(tag.substring(1, tag.length() - 1));
+    }
+
+    private static String etag(int version) {
+        return "\"" + version + "\"";
+    }
+
+    private static long parseSequence(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException exception) {
+            throw new BadRequestException("Invalid sequence number: " + value);
+        }
+    }
+
+    private static int parseVersion(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException exception) {
+            throw new BadRequestException("Invalid version: " + value);
+        }
+    }
+
+    private static int parseLimit(String value) {
+        int limit;
+        try {
+            limit = Integer.parseInt(value);
+        } catch (NumberFormatException exception) {
+            throw new BadRequestException("Invalid limit: " + value);
+        }
+        if (limit < 1) {
+            throw new BadRequestException("Invalid limit: " + value);
+        }
+        return limit;
+    }
+
+    private static int parseWait(String value) {
+        int wait;
+        try {
+            wait = Integer.parseInt(value);
+        } catch (NumberFormatException exception) {
+            throw new BadRequestException("Invalid wait: " + value);
+        }
+        if (wait < 0) {
+            throw new BadRequestException("Invalid wait: " + value);
+        }
+        return wait;
+    }
+
+    /**
+     * The {@code name=value} pairs of a query; a name without a value maps to the empty string.
+     */
+    private static Map<String, String> parameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                parameters.put(parameter, "");
+            } else {
+                parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Writes one entry per line with chunked transfer encoding, as the entries are produced.
+     */
+    private static void streamLines(HttpExchange exchange, Stream<String> entries) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            Iterator<String> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                writer.write(iterator.next());
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static String lines(List<?> entries) {
+        StringBuilder builder = new StringBuilder();
+        for (Object entry : entries) {
+            builder.append(entry).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static KeyStore loadKeyStore(Path path, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(path)) {
+            keyStore.load(input, password);
+        }
+        return keyStore;
+    }
+
+    /**
+     * One virtual thread per exchange when the runtime has them (Java 21+). The project targets
+     * Java 17, so the factory is looked up reflectively and falls back to a cached pool of
+     * platform threads.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "vault-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.vault.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Where a blob secret lives and how it was sealed: the name of its file in the {@link BlobStore},
+ * its plaintext size, the chunk size and the nonce the chunk IVs are derived from. Stored as the
+ * ciphertext of the secret's record, so the record stays a few dozen bytes however large the
+ * secret is.
+ */
+public record BlobRef(String id, long size, int chunkSize, byte[] nonce) {
+    private static final byte FORMAT_VERSION = 1;
+
+    public static BlobRef of(SecretRecord record) {
+        if (!record.isBlob()) {
+            throw new IllegalArgumentException("Not a blob: " + record.path());
+        }
+        ByteBuffer input = ByteBuffer.wrap(record.ciphertext());
+        byte format = input.get();
+        if (format != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown blob reference format: " + format);
+        }
+        byte[] id = new byte[input.get() & 0xFF];
+        input.get(id);
+        long size = input.getLong();
+        int chunkSize = input.getInt();
+        byte[] nonce = new byte[input.get() & 0xFF];
+        input.get(nonce);
+        return new BlobRef(new String(id, StandardCharsets.US_ASCII), size, chunkSize, nonce);
+    }
+
+    public byte[] encode() {
+        byte[] name = id.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(1 + 1 + name.length + Long.BYTES + Integer.BYTES + 1 + nonce.length)
+                .put(FORMAT_VERSION)
+                .put((byte) name.length)
+                .put(name)
+                .putLong(size)
+                .putInt(chunkSize)
+                .put((byte) nonce.length)
+                .put(nonce)
+                .array();
+    }
+}
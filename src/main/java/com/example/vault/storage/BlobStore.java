@@ -0,0 +1,155 @@
+package com.example.vault.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Set;
+
+/**
+ * Files holding the sealed contents of blob secrets, under {@code blobs/} in the store directory.
+ * A blob is written to a temporary file, forced to disk and renamed into place before the record
+ * pointing at it is saved, so a committed record never names a missing or partial file. Files are
+ * never modified once in place; a new version of a secret gets a new file, and files no longer
+ * referenced by any version are removed by {@link SecretRepository#sweepBlobs}.
+ */
+public final class BlobStore {
+    static final String DIRECTORY = "blobs";
+
+    private static final String SUFFIX = ".blob";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int ID_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Path directory;
+
+    BlobStore(Path storePath) {
+        this.directory = storePath.resolve(DIRECTORY);
+    }
+
+    /**
+     * Starts a new blob under a fresh random id.
+     */
+    public Writer create() throws IOException {
+        byte[] random = new byte[ID_BYTES];
+        RANDOM.nextBytes(random);
+        return create(HexFormat.of().formatHex(random));
+    }
+
+    /**
+     * Starts a blob under {@code id}, for a restore that has to keep the ids its records use.
+     */
+    Writer create(String id) throws IOException {
+        file(id);
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(id + TEMP_SUFFIX);
+        return new Writer(id, temp, FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    }
+
+    public FileChannel open(String id) throws IOException {
+        return FileChannel.open(file(id), StandardOpenOption.READ);
+    }
+
+    /**
+     * Removes every blob not in {@code referenced}, and every abandoned temporary file, that was
+     * last modified before {@code cutoff}. The cutoff keeps blobs whose record is still on its way
+     * to the log. Returns how many files were removed.
+     */
+    int sweep(Set<String> referenced, Instant cutoff) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean garbage = name.endsWith(TEMP_SUFFIX) || name.endsWith(SUFFIX)
+                        && !referenced.contains(name.substring(0, name.length() - SUFFIX.length()));
+                if (garbage && modifiedBefore(file, cutoff)) {
+                    removed += Files.deleteIfExists(file) ? 1 : 0;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private Path file(String id) {
+        if (!id.matches("[0-9a-f]+")) {
+            throw new IllegalArgumentException("Invalid blob id: " + id);
+        }
+        return directory.resolve(id + SUFFIX);
+    }
+
+    private static boolean modifiedBefore(Path file, Instant cutoff) throws IOException {
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            return modified.toInstant().isBefore(cutoff);
+        } catch (NoSuchFileException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * A blob being written. Nothing is visible under its id until {@link #commit()}; closing an
+     * uncommitted writer removes what was written.
+     */
+    public final class Writer implements WritableByteChannel {
+        private final String id;
+        private final Path temp;
+        private final FileChannel channel;
+        private boolean committed;
+
+        private Writer(String id, Path temp, FileChannel channel) {
+            this.id = id;
+            this.temp = temp;
+            this.channel = channel;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            return channel.write(source);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        /**
+         * Forces the blob to disk and moves it into place under its id.
+         */
+        public void commit() throws IOException {
+            channel.force(true);
+            channel.close();
+            Files.move(temp, file(id), StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            try (FileChannel parent = FileChannel.open(directory, StandardOpenOption.READ)) {
+                parent.force(true);
+            } catch (IOException exception) {
+                // Not every platform can sync a directory; the rename is still atomic.
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (!committed) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.vault.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The most recent changes of a store in the order they reached the log, each under a sequence
+ * number one above the last. Only version bumps count: a put that writes a new version and a
+ * delete; re-wrapping a DEK keeps the version and is not a change. The feed lives in memory and
+ * holds the last {@code capacity} changes; a reader that fell further behind, or that was
+ * reading when the store had to be replayed from scratch, is told to reset.
+ *
+ * <p>Sequence numbers start from the clock when the feed is created, so a sequence number handed
+ * out before a restart is always behind the new feed and gets a reset instead of silently
+ * skipping changes.
+ *
+ * <p>Readers wait on a {@link ReentrantLock} condition rather than a monitor, so a server can park
+ * thousands of long polls on virtual threads.
+ */
+public final class ChangeFeed {
+    public static final int DEFAULT_CAPACITY = 65_536;
+
+    private static final int CLOCK_SHIFT = 20;
+
+    private final Event[] ring;
+    private final long base;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private long next;
+    private long floor;
+
+    ChangeFeed(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.ring = new Event[capacity];
+        this.base = System.currentTimeMillis() << CLOCK_SHIFT;
+        this.next = base;
+        this.floor = base;
+    }
+
+    /**
+     * The sequence number of the latest change, or one below the first that will be appended.
+     */
+    public long head() {
+        lock.lock();
+        try {
+            return next - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void append(List<Change> changes) {
+        lock.lock();
+        try {
+            for (Change change : changes) {
+                ring[(int) ((next - base) % ring.length)] = new Event(next, change.type(), change.path(),
+                        change.version());
+                next++;
+            }
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every change so far, for when the index had to be rebuilt from scratch and what
+     * changed in between is unknown. Every reader gets a reset.
+     */
+    void invalidate() {
+        lock.lock();
+        try {
+            next++;
+            floor = next;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Up to {@code limit} changes under {@code prefix} after sequence number {@code after},
+     * waiting up to {@code waitNanos} for the first one; a negative {@code after} starts from
+     * the head. The returned cursor covers every change looked at, matching or not.
+     */
+    Batch read(String prefix, long after, int limit, long waitNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            long cursor = after < 0 ? next - 1 : after;
+            long remaining = waitNanos;
+            while (true) {
+                long oldest = Math.max(floor, next - ring.length);
+                if (cursor + 1 < oldest || cursor >= next) {
+                    return new Batch(List.of(), next - 1, true);
+                }
+                List<Event> events = new ArrayList<>();
+                while (cursor + 1 < next && events.size() < limit) {
+                    cursor++;
+                    Event event = ring[(int) ((cursor - base) % ring.length)];
+                    if (event.path().startsWith(prefix)) {
+                        events.add(event);
+                    }
+                }
+                if (!events.isEmpty() || remaining <= 0) {
+                    return new Batch(events, cursor, false);
+                }
+                remaining = appended.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public enum Type {
+        PUT,
+        DELETE
+    }
+
+    /**
+     * One change: the secret at {@code path} got {@code version}, or lost it when deleted.
+     */
+    public record Event(long sequence, Type type, String path, int version) {
+    }
+
+    /**
+     * Changes read from the feed. {@code cursor} is where the next read continues; with
+     * {@code reset} the changes since the reader's cursor are gone, and it has to re-read what it
+     * watches and continue from {@code cursor}.
+     */
+    public record Batch(List<Event> events, long cursor, boolean reset) {
+    }
+
+    record Change(Type type, String path, int version) {
+    }
+}
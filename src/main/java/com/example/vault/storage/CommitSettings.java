@@ -0,0 +1,23 @@
+package com.example.vault.storage;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Tuning for the group-commit writer of a {@link SecretRepository}. A group is closed once it
+ * holds {@code maxBatchSize} mutations or {@code maxWait} has passed since its first one arrived;
+ * with a zero wait a group is simply everything that queued up while the previous fsync ran.
+ */
+public record CommitSettings(int maxBatchSize, Duration maxWait) {
+    public static final CommitSettings DEFAULT = new CommitSettings(256, Duration.ZERO);
+
+    public CommitSettings {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        Objects.requireNonNull(maxWait, "maxWait");
+        if (maxWait.isNegative()) {
+            throw new IllegalArgumentException("maxWait must not be negative");
+        }
+    }
+}
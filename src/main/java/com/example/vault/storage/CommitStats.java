@@ -0,0 +1,21 @@
+package com.example.vault.storage;
+
+/**
+ * Counters of the group-commit writer since the repository was opened: {@code commits} is the
+ * number of groups written and {@code largestBatch} the most mutations one group held. Latency is
+ * measured per mutation, from the moment it was queued until its group had been synced to disk.
+ */
+public record CommitStats(long commits,
+        long mutations,
+        int largestBatch,
+        long totalLatencyNanos,
+        long maxLatencyNanos) {
+
+    public double averageBatchSize() {
+        return commits == 0 ? 0 : (double) mutations / commits;
+    }
+
+    public long averageLatencyNanos() {
+        return mutations == 0 ? 0 : totalLatencyNanos / mutations;
+    }
+}
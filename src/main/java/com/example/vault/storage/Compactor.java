@@ -0,0 +1,154 @@
+package com.example.vault.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Merges every sealed segment of a {@link SegmentLog} into one, keeping only the newest entry per
+ * key and dropping deletes; a surviving entry of a batch is copied into a frame of its own.
+ * Liveness is decided from the merged segments alone, so the result is correct even when other
+ * processes appended frames this process has never indexed.
+ */
+final class Compactor implements Closeable {
+    private static final int MAX_SEALED_SEGMENTS = 8;
+
+    private final SegmentLog log;
+    private final RelocationListener listener;
+    private final ExecutorService executor;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    Compactor(SegmentLog log, RelocationListener listener) {
+        this.log = log;
+        this.listener = listener;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vault-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void maybeSchedule(List<Segment> segments) {
+        if (!worthCompacting(segments) || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                compact();
+            } catch (IOException | RuntimeException exception) {
+                System.err.println("Segment compaction failed: " + exception.getMessage());
+            } finally {
+                scheduled.set(false);
+            }
+        });
+    }
+
+    boolean compact() throws IOException {
+        FileLock lock;
+        try {
+            lock = log.tryLockCompaction();
+        } catch (OverlappingFileLockException exception) {
+            return false;
+        }
+        if (lock == null) {
+            return false;
+        }
+        try (lock) {
+            List<Segment> inputs = log.sealedSegments();
+            if (inputs.isEmpty()) {
+                return false;
+            }
+            Map<EntryKey, RecordLocation> latest = new HashMap<>();
+            for (Segment segment : inputs) {
+                forEachEntry(segment, (location, entry, encoded) ->
+                        latest.put(EntryKey.of(entry), entry instanceof LogEntry.Delete ? null : location));
+            }
+            List<Relocation> relocations = new ArrayList<>();
+            try (FileChannel output = log.createCompactionTarget(inputs.get(inputs.size() - 1))) {
+                long[] offset = {SegmentLog.HEADER_BYTES};
+                for (Segment segment : inputs) {
+                    forEachEntry(segment, (location, entry, encoded) -> {
+                        EntryKey key = EntryKey.of(entry);
+                        if (!location.equals(latest.get(key))) {
+                            return;
+                        }
+                        ByteBuffer frame = SegmentLog.frame(LogEntry.isLegacy(encoded)
+                                ? ByteBuffer.wrap(entry.encode())
+                                : encoded);
+                        int length = frame.remaining();
+                        while (frame.hasRemaining()) {
+                            output.write(frame, offset[0] + frame.position());
+                        }
+                        relocations.add(new Relocation(key, location, offset[0], length));
+                        offset[0] += length;
+                    });
+                }
+                output.force(true);
+            }
+            Segment compacted = log.install(inputs);
+            for (Relocation relocation : relocations) {
+                RecordLocation target = new RecordLocation(compacted, relocation.offset(), relocation.length());
+                if (!listener.relocated(relocation.key(), relocation.from(), target)) {
+                    compacted.markDead(relocation.length());
+                }
+            }
+            log.retire(inputs);
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void forEachEntry(Segment segment, LogEntry.EntryVisitor visitor) throws IOException {
+        log.scan(segment, (frame, payload) -> LogEntry.forEach(frame, payload, visitor));
+    }
+
+    private static boolean worthCompacting(List<Segment> segments) {
+        int sealed = segments.size() - 1;
+        if (sealed <= 0) {
+            return false;
+        }
+        if (sealed >= MAX_SEALED_SEGMENTS) {
+            return true;
+        }
+        long total = 0;
+        long dead = 0;
+        for (Segment segment : segments.subList(0, sealed)) {
+            total += segment.size();
+            dead += segment.deadBytes();
+        }
+        return dead * 2 >= total;
+    }
+
+    record EntryKey(boolean metadata, String name) {
+        static EntryKey of(LogEntry entry) {
+            return new EntryKey(entry.isMetadata(), entry.key());
+        }
+    }
+
+    private record Relocation(EntryKey key, RecordLocation from, long offset, int length) {
+    }
+
+    interface RelocationListener {
+        boolean relocated(EntryKey key, RecordLocation from, RecordLocation to);
+    }
+}
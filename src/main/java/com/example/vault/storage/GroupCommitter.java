@@ -0,0 +1,235 @@
+package com.example.vault.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single writer in front of a {@link SegmentLog}. Callers queue mutations and wait on a future;
+ * the writer thread takes everything pending (up to the configured batch size and wait), encodes
+ * the mutations in queue order under the store lock, appends them with one write and one fsync,
+ * and then completes every future of the group.
+ */
+final class GroupCommitter implements Closeable {
+    private static final Pending STOP = new Pending(() -> null, 0);
+
+    private final SegmentLog log;
+    private final CommitSettings settings;
+    private final GroupListener listener;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder mutations = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicInteger largestBatch = new AtomicInteger();
+    private boolean closed;
+
+    GroupCommitter(SegmentLog log, CommitSettings settings, GroupListener listener) {
+        this.log = log;
+        this.settings = settings;
+        this.listener = listener;
+        this.writer = new Thread(this::run, "vault-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues {@code mutation} and blocks until the group containing it is on disk.
+     */
+    void commit(Mutation mutation) throws IOException {
+        await(submit(mutation));
+    }
+
+    synchronized CompletableFuture<Void> submit(Mutation mutation) throws IOException {
+        if (closed) {
+            throw new IOException("Store is closed");
+        }
+        Pending pending = new Pending(mutation, System.nanoTime());
+        queue.add(pending);
+        return pending.future;
+    }
+
+    CommitStats stats() {
+        return new CommitStats(commits.sum(), mutations.sum(), largestBatch.get(), totalLatencyNanos.sum(),
+                maxLatencyNanos.get());
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(STOP);
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException exception) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the store to commit");
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private void run() {
+        List<Pending> group = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                Pending first = queue.take();
+                if (first == STOP) {
+                    break;
+                }
+                group.add(first);
+                stopping = collect(group);
+            } catch (InterruptedException exception) {
+                continue;
+            }
+            write(group);
+            group.clear();
+        }
+    }
+
+    /**
+     * Adds queued mutations to {@code group} until it is full or the wait runs out, and returns
+     * whether the stop marker was reached.
+     */
+    private boolean collect(List<Pending> group) throws InterruptedException {
+        long deadline = System.nanoTime() + settings.maxWait().toNanos();
+        while (group.size() < settings.maxBatchSize()) {
+            long remaining = deadline - System.nanoTime();
+            Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            if (next == null) {
+                return false;
+            }
+            if (next == STOP) {
+                return true;
+            }
+            group.add(next);
+        }
+        return false;
+    }
+
+    private void write(List<Pending> group) {
+        List<Pending> written = new ArrayList<>(group.size());
+        try {
+            List<RecordLocation> appended = log.append(() -> {
+                List<byte[]> payloads = encode(group, written);
+                listener.encoded();
+                return payloads;
+            });
+            if (!appended.isEmpty()) {
+                log.sync();
+            }
+        } catch (IOException | RuntimeException exception) {
+            for (Pending pending : group) {
+                pending.future.completeExceptionally(exception);
+            }
+            return;
+        } finally {
+            listener.finished();
+        }
+        commits.increment();
+        largestBatch.accumulateAndGet(written.size(), Math::max);
+        long now = System.nanoTime();
+        for (Pending pending : written) {
+            long latency = now - pending.queuedAt;
+            mutations.increment();
+            totalLatencyNanos.add(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            pending.future.complete(null);
+        }
+    }
+
+    /**
+     * Encodes the mutations of {@code group} in queue order, while the store lock is held. A
+     * mutation that fails to encode fails on its own; the others are collected in {@code written}.
+     */
+    private static List<byte[]> encode(List<Pending> group, List<Pending> written) {
+        written.clear();
+        List<byte[]> payloads = new ArrayList<>(group.size());
+        for (Pending pending : group) {
+            byte[] payload;
+            try {
+                payload = pending.mutation.encode();
+            } catch (IOException | RuntimeException exception) {
+                pending.future.completeExceptionally(exception);
+                continue;
+            }
+            if (payload != null) {
+                payloads.add(payload);
+            }
+            written.add(pending);
+        }
+        return payloads;
+    }
+
+    /**
+     * Callbacks on the writer thread around each group.
+     */
+    interface GroupListener {
+        /**
+         * Runs after the group is encoded and before its frames are appended, still under the
+         * store lock; a failure fails the whole group.
+         */
+        void encoded() throws IOException;
+
+        /**
+         * Runs after every group, whether or not it was committed, so per-group state built up
+         * while encoding can be dropped.
+         */
+        void finished();
+    }
+
+    /**
+     * A change to the store, encoded on the writer thread just before its group is written.
+     */
+    interface Mutation {
+        /**
+         * Returns the log payload for this change, or {@code null} when there is nothing to write.
+         */
+        byte[] encode() throws IOException;
+    }
+
+    private static final class Pending {
+        private final Mutation mutation;
+        private final long queuedAt;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Pending(Mutation mutation, long queuedAt) {
+            this.mutation = mutation;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
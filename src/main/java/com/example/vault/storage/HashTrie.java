@@ -0,0 +1,267 @@
+package com.example.vault.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable hash map from path to value (a hash array mapped trie). Each level consumes five bits
+ * of the path's hash and keeps only the slots in use, so a lookup is a handful of array reads and
+ * one {@code equals} whatever the number of paths, and an update copies only the few nodes on its
+ * way down. Paths whose whole hash is the same share a bucket at the bottom.
+ */
+final class HashTrie<V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_SHIFT = 30;
+    private static final HashTrie<?> EMPTY = new HashTrie<>(null);
+
+    /** A {@link Branch}, {@link Leaf} or {@link Bucket}, or {@code null} when empty. */
+    private final Object root;
+
+    private HashTrie(Object root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> HashTrie<V> empty() {
+        return (HashTrie<V>) EMPTY;
+    }
+
+    /**
+     * A trie holding {@code entries}, built top-down by splitting them on their hash bits rather
+     * than by one insert per entry.
+     */
+    static <V> HashTrie<V> of(Map<String, V> entries) {
+        if (entries.isEmpty()) {
+            return empty();
+        }
+        List<Leaf> leaves = new ArrayList<>(entries.size());
+        entries.forEach((path, value) -> leaves.add(new Leaf(hash(path), path, value)));
+        return new HashTrie<>(build(leaves, 0));
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(String path) {
+        int hash = hash(path);
+        Object node = root;
+        for (int shift = 0; node instanceof Branch branch; shift += BITS) {
+            int bit = bit(hash, shift);
+            if ((branch.bitmap & bit) == 0) {
+                return null;
+            }
+            node = branch.slots[branch.index(bit)];
+        }
+        if (node instanceof Leaf leaf) {
+            return leaf.hash == hash && leaf.path.equals(path) ? (V) leaf.value : null;
+        }
+        return node == null ? null : (V) ((Bucket) node).get(hash, path);
+    }
+
+    HashTrie<V> with(String path, V value) {
+        return new HashTrie<>(put(root, 0, new Leaf(hash(path), path, value)));
+    }
+
+    HashTrie<V> without(String path) {
+        Object updated = remove(root, 0, hash(path), path);
+        return updated == root ? this : updated == null ? empty() : new HashTrie<>(updated);
+    }
+
+    private static Object build(List<Leaf> leaves, int shift) {
+        if (leaves.size() == 1) {
+            return leaves.get(0);
+        }
+        if (shift > MAX_SHIFT) {
+            return new Bucket(leaves.get(0).hash, leaves.toArray(new Leaf[0]));
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<Leaf>[] groups = new List[1 << BITS];
+        int bitmap = 0;
+        for (Leaf leaf : leaves) {
+            int position = (leaf.hash >>> shift) & MASK;
+            if (groups[position] == null) {
+                groups[position] = new ArrayList<>();
+                bitmap |= 1 << position;
+            }
+            groups[position].add(leaf);
+        }
+        Object[] slots = new Object[Integer.bitCount(bitmap)];
+        int slot = 0;
+        for (List<Leaf> group : groups) {
+            if (group != null) {
+                slots[slot++] = build(group, shift + BITS);
+            }
+        }
+        return new Branch(bitmap, slots);
+    }
+
+    private static Object put(Object node, int shift, Leaf leaf) {
+        if (node == null) {
+            return leaf;
+        }
+        if (node instanceof Branch branch) {
+            int bit = bit(leaf.hash, shift);
+            int index = branch.index(bit);
+            if ((branch.bitmap & bit) == 0) {
+                return branch.inserted(bit, index, leaf);
+            }
+            return branch.replaced(index, put(branch.slots[index], shift + BITS, leaf));
+        }
+        if (node instanceof Leaf existing) {
+            if (existing.hash != leaf.hash) {
+                return join(existing, existing.hash, leaf, shift);
+            }
+            return existing.path.equals(leaf.path) ? leaf : new Bucket(leaf.hash, new Leaf[] {existing, leaf});
+        }
+        Bucket bucket = (Bucket) node;
+        return bucket.hash == leaf.hash ? bucket.with(leaf) : join(bucket, bucket.hash, leaf, shift);
+    }
+
+    /**
+     * A branch holding {@code node} and {@code leaf}, whose hashes differ, nested as deep as
+     * their hashes agree.
+     */
+    private static Object join(Object node, int hash, Leaf leaf, int shift) {
+        int bit = bit(hash, shift);
+        int other = bit(leaf.hash, shift);
+        if (bit == other) {
+            return new Branch(bit, new Object[] {join(node, hash, leaf, shift + BITS)});
+        }
+        return new Branch(bit | other,
+                Integer.compareUnsigned(bit, other) < 0 ? new Object[] {node, leaf} : new Object[] {leaf, node});
+    }
+
+    /**
+     * Returns {@code node} itself when {@code path} is not in it, and {@code null} when nothing
+     * is left. A branch left with a single leaf or bucket is replaced by it.
+     */
+    private static Object remove(Object node, int shift, int hash, String path) {
+        if (node instanceof Branch branch) {
+            int bit = bit(hash, shift);
+            if ((branch.bitmap & bit) == 0) {
+                return branch;
+            }
+            int index = branch.index(bit);
+            Object child = branch.slots[index];
+            Object updated = remove(child, shift + BITS, hash, path);
+            if (updated == child) {
+                return branch;
+            }
+            if (updated != null) {
+                return branch.slots.length == 1 && !(updated instanceof Branch)
+                        ? updated
+                        : branch.replaced(index, updated);
+            }
+            if (branch.slots.length == 1) {
+                return null;
+            }
+            if (branch.slots.length == 2 && !(branch.slots[1 - index] instanceof Branch)) {
+                return branch.slots[1 - index];
+            }
+            return branch.removed(bit, index);
+        }
+        if (node instanceof Leaf leaf) {
+            return leaf.hash == hash && leaf.path.equals(path) ? null : leaf;
+        }
+        return node == null ? null : ((Bucket) node).without(hash, path);
+    }
+
+    private static int hash(String path) {
+        int hash = path.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * An inner node: one bit per slot in use, and the slots in the order of their bits.
+     */
+    private static final class Branch {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private Branch(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private Branch inserted(int bit, int index, Object node) {
+            Object[] copy = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            copy[index] = node;
+            System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+            return new Branch(bitmap | bit, copy);
+        }
+
+        private Branch replaced(int index, Object node) {
+            Object[] copy = slots.clone();
+            copy[index] = node;
+            return new Branch(bitmap, copy);
+        }
+
+        private Branch removed(int bit, int index) {
+            Object[] copy = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            System.arraycopy(slots, index + 1, copy, index, copy.length - index);
+            return new Branch(bitmap & ~bit, copy);
+        }
+    }
+
+    private record Leaf(int hash, String path, Object value) {
+    }
+
+    /**
+     * Leaves whose hashes are equal in all bits.
+     */
+    private record Bucket(int hash, Leaf[] leaves) {
+        private Object get(int hash, String path) {
+            if (hash != this.hash) {
+                return null;
+            }
+            for (Leaf leaf : leaves) {
+                if (leaf.path.equals(path)) {
+                    return leaf.value;
+                }
+            }
+            return null;
+        }
+
+        private Bucket with(Leaf leaf) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].path.equals(leaf.path)) {
+                    Leaf[] copy = leaves.clone();
+                    copy[i] = leaf;
+                    return new Bucket(hash, copy);
+                }
+            }
+            Leaf[] copy = Arrays.copyOf(leaves, leaves.length + 1);
+            copy[leaves.length] = leaf;
+            return new Bucket(hash, copy);
+        }
+
+        private Object without(int hash, String path) {
+            if (hash != this.hash) {
+                return this;
+            }
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].path.equals(path)) {
+                    if (leaves.length == 2) {
+                        return leaves[1 - i];
+                    }
+                    Leaf[] copy = new Leaf[leaves.length - 1];
+                    System.arraycopy(leaves, 0, copy, 0, i);
+                    System.arraycopy(leaves, i + 1, copy, i, copy.length - i);
+                    return new Bucket(hash, copy);
+                }
+            }
+            return this;
+        }
+    }
+}
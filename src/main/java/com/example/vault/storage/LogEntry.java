@@ -0,0 +1,348 @@
+package com.example.vault.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A change recorded in the log. Secrets are written as {@link #RECORD} payloads:
+ *
+ * <pre>
+ * byte   type (5)
+ * int    version
+ * long   createdAt, epoch milliseconds ({@link Long#MIN_VALUE} when unknown)
+ * long   updatedAt, epoch milliseconds ({@link Long#MIN_VALUE} when unknown)
+ * u16    path length, then the path in UTF-8
+ * u16    encrypted DEK length, then its bytes
+ * u8     DEK IV length, then its bytes
+ * u8     secret IV length, then its bytes
+ * int    ciphertext length, then its bytes
+ * </pre>
+ *
+ * {@link #VERSION} payloads of the history log use the same layout with type 6. Decoding reads
+ * the fields straight out of the payload buffer, which may be a slice of a larger read buffer.
+ * Frames of the earlier {@link #PUT} layout (modified UTF-8 strings and ISO-8601
+ * timestamps) are still read, and compaction rewrites them in the current layout.
+ */
+sealed interface LogEntry permits LogEntry.Put, LogEntry.Version, LogEntry.Delete, LogEntry.Metadata {
+    byte PUT = 1;
+    byte DELETE = 2;
+    byte METADATA = 3;
+    byte BATCH = 4;
+    byte RECORD = 5;
+    byte VERSION = 6;
+
+    long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    String key();
+
+    byte[] encode();
+
+    default boolean isMetadata() {
+        return this instanceof Metadata;
+    }
+
+    static LogEntry decode(byte[] payload) throws IOException {
+        return decode(ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * Decodes the remaining bytes of {@code payload} without moving its position.
+     */
+    static LogEntry decode(ByteBuffer payload) throws IOException {
+        ByteBuffer input = payload.slice();
+        try {
+            byte type = input.get();
+            return switch (type) {
+                case RECORD -> new Put(readRecord(input));
+                case VERSION -> new Version(readRecord(input));
+                case PUT -> new Put(readLegacyRecord(input));
+                case DELETE -> new Delete(legacyInput(input).readUTF());
+                case METADATA -> {
+                    DataInputStream legacy = legacyInput(input);
+                    yield new Metadata(legacy.readUTF(), legacy.readUTF());
+                }
+                default -> throw new IOException("Unknown log entry type: " + type);
+            };
+        } catch (BufferUnderflowException exception) {
+            throw new IOException("Truncated log entry", exception);
+        }
+    }
+
+    /**
+     * Whether {@code encoded} holds an entry in a layout that is only kept for reading.
+     */
+    static boolean isLegacy(ByteBuffer encoded) {
+        return encoded.hasRemaining() && encoded.get(encoded.position()) == PUT;
+    }
+
+    /**
+     * Packs several entries into one payload, so they reach the log in a single checksummed frame
+     * and are replayed either all together or not at all.
+     */
+    static byte[] encodeBatch(List<LogEntry> entries) {
+        return write(BATCH, output -> {
+            output.writeInt(entries.size());
+            for (LogEntry entry : entries) {
+                writeBytes(output, entry.encode());
+            }
+        });
+    }
+
+    /**
+     * The number of entries in {@code payload}, without decoding them.
+     */
+    static int count(ByteBuffer payload) {
+        if (!payload.hasRemaining() || payload.get(payload.position()) != BATCH) {
+            return 1;
+        }
+        return payload.getInt(payload.position() + 1);
+    }
+
+    /**
+     * Decodes every entry of a payload that was not read from a log, such as a batch of a
+     * {@link Snapshot}.
+     */
+    static List<LogEntry> decodeAll(ByteBuffer payload) throws IOException {
+        if (!payload.hasRemaining() || payload.get(payload.position()) != BATCH) {
+            return List.of(decode(payload));
+        }
+        ByteBuffer input = payload.slice();
+        try {
+            input.get();
+            int count = input.getInt();
+            List<LogEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = input.getInt();
+                entries.add(decode(input.slice().limit(length)));
+                input.position(input.position() + length);
+            }
+            return entries;
+        } catch (BufferUnderflowException | IllegalArgumentException exception) {
+            throw new IOException("Truncated batch", exception);
+        }
+    }
+
+    /**
+     * Decodes the payload of the frame at {@code location} and hands every entry in it to
+     * {@code visitor}. An entry inside a batch gets the location of its own bytes within the
+     * frame, so each entry of the batch can be tracked and relocated on its own. The buffers
+     * passed to the visitor are only valid during the call.
+     */
+    static void forEach(RecordLocation location, ByteBuffer payload, EntryVisitor visitor) throws IOException {
+        if (!payload.hasRemaining() || payload.get(payload.position()) != BATCH) {
+            visitor.accept(location, decode(payload), payload);
+            return;
+        }
+        ByteBuffer input = payload.slice();
+        try {
+            input.get();
+            int count = input.getInt();
+            long base = location.offset() + SegmentLog.FRAME_HEADER_BYTES;
+            for (int i = 0; i < count; i++) {
+                int length = input.getInt();
+                ByteBuffer encoded = input.slice().limit(length);
+                RecordLocation part = new RecordLocation(location.segment(), base + input.position(), length);
+                visitor.accept(part, decode(encoded), encoded);
+                input.position(input.position() + length);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException exception) {
+            throw new IOException("Truncated batch in " + location.segment() + " at offset " + location.offset(),
+                    exception);
+        }
+    }
+
+    private static SecretRecord readRecord(ByteBuffer input) {
+        int version = input.getInt();
+        long createdAt = input.getLong();
+        long updatedAt = input.getLong();
+        int pathLength = Short.toUnsignedInt(input.getShort());
+        String path;
+        if (input.hasArray()) {
+            path = new String(input.array(), input.arrayOffset() + input.position(), pathLength,
+                    StandardCharsets.UTF_8);
+            input.position(input.position() + pathLength);
+        } else {
+            path = new String(readBytes(input, pathLength), StandardCharsets.UTF_8);
+        }
+        byte[] encryptedDek = readBytes(input, Short.toUnsignedInt(input.getShort()));
+        byte[] dekIv = readBytes(input, Byte.toUnsignedInt(input.get()));
+        byte[] secretIv = readBytes(input, Byte.toUnsignedInt(input.get()));
+        byte[] ciphertext = readBytes(input, input.getInt());
+        return new SecretRecord(path, encryptedDek, dekIv, secretIv, ciphertext, version,
+                toInstant(createdAt), toInstant(updatedAt));
+    }
+
+    private static SecretRecord readLegacyRecord(ByteBuffer buffer) throws IOException {
+        DataInputStream input = legacyInput(buffer);
+        return new SecretRecord(
+                input.readUTF(),
+                readLegacyBytes(input),
+                readLegacyBytes(input),
+                readLegacyBytes(input),
+                readLegacyBytes(input),
+                input.readInt(),
+                readLegacyTimestamp(input),
+                readLegacyTimestamp(input));
+    }
+
+    private static DataInputStream legacyInput(ByteBuffer buffer) {
+        return new DataInputStream(new ByteArrayInputStream(readBytes(buffer, buffer.remaining())));
+    }
+
+    private static byte[] readBytes(ByteBuffer input, int length) {
+        if (length < 0 || length > input.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        input.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] readLegacyBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private static Instant readLegacyTimestamp(DataInputStream input) throws IOException {
+        return input.readBoolean() ? Instant.parse(input.readUTF()) : null;
+    }
+
+    private static Instant toInstant(long epochMillis) {
+        return epochMillis == NO_TIMESTAMP ? null : Instant.ofEpochMilli(epochMillis);
+    }
+
+    private static long toEpochMillis(Instant instant) {
+        return instant == null ? NO_TIMESTAMP : instant.toEpochMilli();
+    }
+
+    private static byte[] write(byte type, EntryWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(type);
+            writer.write(output);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] writeRecord(byte type, SecretRecord record) {
+        byte[] path = record.path().getBytes(StandardCharsets.UTF_8);
+        int size = 1 + Integer.BYTES + 2 * Long.BYTES
+                + Short.BYTES + checkLength("Path", path.length, 0xFFFF)
+                + Short.BYTES + checkLength("Encrypted DEK", record.encryptedDek().length, 0xFFFF)
+                + 1 + checkLength("DEK IV", record.dekIv().length, 0xFF)
+                + 1 + checkLength("Secret IV", record.secretIv().length, 0xFF)
+                + Integer.BYTES + record.ciphertext().length;
+        ByteBuffer output = ByteBuffer.allocate(size)
+                .put(type)
+                .putInt(record.version())
+                .putLong(toEpochMillis(record.createdAt()))
+                .putLong(toEpochMillis(record.updatedAt()));
+        output.putShort((short) path.length).put(path);
+        output.putShort((short) record.encryptedDek().length).put(record.encryptedDek());
+        output.put((byte) record.dekIv().length).put(record.dekIv());
+        output.put((byte) record.secretIv().length).put(record.secretIv());
+        output.putInt(record.ciphertext().length).put(record.ciphertext());
+        return output.array();
+    }
+
+    private static int checkLength(String field, int length, int max) {
+        if (length > max) {
+            throw new IllegalArgumentException(field + " is longer than " + max + " bytes");
+        }
+        return length;
+    }
+
+    interface EntryVisitor {
+        void accept(RecordLocation location, LogEntry entry, ByteBuffer encoded) throws IOException;
+    }
+
+    interface EntryWriter {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    record Put(SecretRecord record) implements LogEntry {
+        @Override
+        public String key() {
+            return record.path();
+        }
+
+        @Override
+        public byte[] encode() {
+            return writeRecord(RECORD, record);
+        }
+    }
+
+    /**
+     * A superseded version of a secret, kept in the history log under the key of that version.
+     */
+    record Version(SecretRecord record) implements LogEntry {
+        private static final char SEPARATOR = '\0';
+
+        static String key(String path, int version) {
+            return path + SEPARATOR + version;
+        }
+
+        static String path(String key) {
+            return key.substring(0, key.lastIndexOf(SEPARATOR));
+        }
+
+        static int version(String key) {
+            return Integer.parseInt(key.substring(key.lastIndexOf(SEPARATOR) + 1));
+        }
+
+        @Override
+        public String key() {
+            return key(record.path(), record.version());
+        }
+
+        @Override
+        public byte[] encode() {
+            return writeRecord(VERSION, record);
+        }
+    }
+
+    record Delete(String path) implements LogEntry {
+        @Override
+        public String key() {
+            return path;
+        }
+
+        @Override
+        public byte[] encode() {
+            return write(DELETE, output -> output.writeUTF(path));
+        }
+    }
+
+    record Metadata(String name, String value) implements LogEntry {
+        @Override
+        public String key() {
+            return name;
+        }
+
+        @Override
+        public byte[] encode() {
+            return write(METADATA, output -> {
+                output.writeUTF(name);
+                output.writeUTF(value);
+            });
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.vault.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted map from path to value. Updates return a new index that shares all untouched
+ * nodes with the old one (a weight-balanced tree with path copying), so a reader holding an index
+ * sees one consistent state for as long as it likes while writers move on.
+ *
+ * <p>A prefix listing is a range scan starting at the prefix, and a child listing jumps over each
+ * child's subtree instead of walking it, so both cost about the size of the answer. Both are also
+ * available as lazy iterators that resume after a given path or key, which is what paginated
+ * listings use: since an index never changes, an iterator can be consumed at any pace.
+ *
+ * <p>Point lookups do not walk the tree. Each index also carries a {@link HashTrie} of the same
+ * entries, updated alongside it, so a {@link #get} stays a constant number of steps however many
+ * paths there are; the tree is only for ordered scans.
+ */
+final class PathIndex<V> {
+    private static final char AFTER_SEPARATOR = '/' + 1;
+    private static final int DELTA = 3;
+    private static final int RATIO = 2;
+    private static final PathIndex<?> EMPTY = new PathIndex<>(null, HashTrie.empty());
+
+    private final Node<V> root;
+    private final HashTrie<V> table;
+
+    private PathIndex(Node<V> root, HashTrie<V> table) {
+        this.root = root;
+        this.table = table;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PathIndex<V> empty() {
+        return (PathIndex<V>) EMPTY;
+    }
+
+    /**
+     * An index holding {@code entries}, built bottom-up from the sorted paths in linear time
+     * rather than by one insert per entry. A perfectly balanced tree is also weight-balanced, so
+     * later updates work on it as on any other.
+     */
+    static <V> PathIndex<V> of(Map<String, V> entries) {
+        if (entries.isEmpty()) {
+            return empty();
+        }
+        String[] paths = entries.keySet().toArray(new String[0]);
+        Arrays.parallelSort(paths);
+        return new PathIndex<>(build(paths, entries, 0, paths.length), HashTrie.of(entries));
+    }
+
+    V get(String path) {
+        return table.get(path);
+    }
+
+    boolean containsKey(String path) {
+        return get(path) != null;
+    }
+
+    PathIndex<V> with(String path, V value) {
+        return new PathIndex<>(insert(root, path, value), table.with(path, value));
+    }
+
+    PathIndex<V> without(String path) {
+        if (!containsKey(path)) {
+            return this;
+        }
+        return new PathIndex<>(delete(root, path), table.without(path));
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    List<String> list(String prefix) {
+        return collect(paths(prefix, null));
+    }
+
+    List<String> children(String parent) {
+        return collect(children(parent, null));
+    }
+
+    /**
+     * The paths starting with {@code prefix} in order, beginning after {@code after}, or at the
+     * first such path when it is {@code null}.
+     */
+    Iterator<String> paths(String prefix, String after) {
+        Deque<Node<V>> stack = after == null || after.compareTo(prefix) < 0 ? descend(prefix) : descend(after + '\0');
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty() && stack.peek().key.startsWith(prefix);
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Node<V> node = stack.pop();
+                for (Node<V> next = node.right; next != null; next = next.left) {
+                    stack.push(next);
+                }
+                return node.key;
+            }
+        };
+    }
+
+    /**
+     * The distinct names directly under {@code parent} in order, beginning after {@code after},
+     * or at the first one when it is {@code null}. Each name costs a few lookups whatever the
+     * size of the subtree below it.
+     */
+    Iterator<String> children(String parent, String after) {
+        return new Iterator<>() {
+            private String last = after;
+            private String next;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !done) {
+                    next = childAfter(parent, last);
+                    done = next == null;
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = null;
+                return last;
+            }
+        };
+    }
+
+    /**
+     * The smallest name directly under {@code parent} that sorts after {@code after}.
+     */
+    private String childAfter(String parent, String after) {
+        String path = after == null ? ceiling(parent, true) : ceiling(parent + after, false);
+        while (path != null && path.startsWith(parent)) {
+            int separator = path.indexOf('/', parent.length());
+            String name = path.substring(parent.length(), separator < 0 ? path.length() : separator);
+            if (name.isEmpty() || after != null && name.compareTo(after) <= 0) {
+                // The parent itself, an empty name, or the inside of a name already returned.
+                path = separator < 0
+                        ? ceiling(path, false)
+                        : ceiling(path.substring(0, separator) + AFTER_SEPARATOR, true);
+                continue;
+            }
+            return directoryPrefix(parent, name, after);
+        }
+        return null;
+    }
+
+    /**
+     * Paths run in a different order than the names they start with when a name continues with a
+     * character below {@code '/'}: {@code a-b} sorts before {@code a/x}, yet the name {@code a}
+     * sorts before {@code a-b}. So a name found by a scan is only the next name unless one of its
+     * prefixes is a directory.
+     */
+    private String directoryPrefix(String parent, String name, String after) {
+        for (int length = 1; length < name.length(); length++) {
+            if (name.charAt(length) >= '/') {
+                continue;
+            }
+            String prefix = name.substring(0, length);
+            if (after != null && prefix.compareTo(after) <= 0) {
+                continue;
+            }
+            String directory = parent + prefix + '/';
+            String first = ceiling(directory, true);
+            if (first != null && first.startsWith(directory)) {
+                return prefix;
+            }
+        }
+        return name;
+    }
+
+    private static List<String> collect(Iterator<String> iterator) {
+        List<String> results = new ArrayList<>();
+        iterator.forEachRemaining(results::add);
+        return results;
+    }
+
+    /**
+     * Returns the smallest path at or after {@code key} (strictly after when {@code inclusive}
+     * is false), or {@code null}.
+     */
+    private String ceiling(String key, boolean inclusive) {
+        String best = null;
+        Node<V> node = root;
+        while (node != null) {
+            int order = key.compareTo(node.key);
+            if (order == 0 && inclusive) {
+                return node.key;
+            }
+            if (order < 0) {
+                best = node.key;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The in-order traversal stack positioned at the first path not before {@code key}.
+     */
+    private Deque<Node<V>> descend(String key) {
+        Deque<Node<V>> stack = new ArrayDeque<>();
+        Node<V> node = root;
+        while (node != null) {
+            if (key.compareTo(node.key) <= 0) {
+                stack.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return stack;
+    }
+
+    private static <V> Node<V> build(String[] paths, Map<String, V> entries, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        String path = paths[middle];
+        return new Node<>(path, entries.get(path), build(paths, entries, from, middle),
+                build(paths, entries, middle + 1, to));
+    }
+
+    private static <V> Node<V> insert(Node<V> node, String key, V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        int order = key.compareTo(node.key);
+        if (order == 0) {
+            return new Node<>(key, value, node.left, node.right);
+        }
+        if (order < 0) {
+            return balance(node.key, node.value, insert(node.left, key, value), node.right);
+        }
+        return balance(node.key, node.value, node.left, insert(node.right, key, value));
+    }
+
+    private static <V> Node<V> delete(Node<V> node, String key) {
+        int order = key.compareTo(node.key);
+        if (order < 0) {
+            return balance(node.key, node.value, delete(node.left, key), node.right);
+        }
+        if (order > 0) {
+            return balance(node.key, node.value, node.left, delete(node.right, key));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        if (node.left.size > node.right.size) {
+            Node<V> max = node.left;
+            while (max.right != null) {
+                max = max.right;
+            }
+            return balance(max.key, max.value, delete(node.left, max.key), node.right);
+        }
+        Node<V> min = node.right;
+        while (min.left != null) {
+            min = min.left;
+        }
+        return balance(min.key, min.value, node.left, delete(node.right, min.key));
+    }
+
+    private static <V> Node<V> balance(String key, V value, Node<V> left, Node<V> right) {
+        int leftSize = size(left);
+        int rightSize = size(right);
+        if (leftSize + rightSize > 1) {
+            if (rightSize > DELTA * leftSize) {
+                return size(right.left) < RATIO * size(right.right)
+                        ? new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right)
+                        : new Node<>(right.left.key, right.left.value,
+                                new Node<>(key, value, left, right.left.left),
+                                new Node<>(right.key, right.value, right.left.right, right.right));
+            }
+            if (leftSize > DELTA * rightSize) {
+                return size(left.right) < RATIO * size(left.left)
+                        ? new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right))
+                        : new Node<>(left.right.key, left.right.value,
+                                new Node<>(left.key, left.value, left.left, left.right.left),
+                                new Node<>(key, value, left.right.right, right));
+            }
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<V> {
+        private final String key;
+        private final V value;
+        private final Node<V> left;
+        private final Node<V> right;
+        private final int size;
+
+        private Node(String key, V value, Node<V> left, Node<V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+}
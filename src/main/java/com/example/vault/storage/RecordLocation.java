@@ -0,0 +1,4 @@
+package com.example.vault.storage;
+
+record RecordLocation(Segment segment, long offset, int length) {
+}
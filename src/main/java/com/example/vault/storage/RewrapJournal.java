@@ -0,0 +1,169 @@
+package com.example.vault.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Progress of a DEK re-wrap, kept in a segment log of its own under {@code rewrap/} in the store
+ * directory until the re-wrap is complete. The first frame holds the metadata the re-wrap is going
+ * to commit; every later frame holds re-wrapped copies of stored versions as
+ * {@link LogEntry.Version} entries.
+ *
+ * <p>Only the new wrapping of each version is held in memory, keyed like the version history and
+ * tagged with the secret IV of the version it was made from (the blob reference for a blob, which
+ * has no IV of its own). A version rewritten since it was journaled has a different tag, so it
+ * counts as pending again instead of picking up a wrapping of another DEK.
+ */
+final class RewrapJournal implements Closeable {
+    static final String DIRECTORY = "rewrap";
+
+    private final Path directory;
+    private final SegmentLog log;
+    private final Map<String, String> metadata = new HashMap<>();
+    private final Map<String, Wrapping> wrapped = new ConcurrentHashMap<>();
+
+    private RewrapJournal(Path directory, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.log = SegmentLog.open(directory, maxSegmentBytes, new SegmentLog.ReplayListener() {
+            @Override
+            public void accept(RecordLocation location, ByteBuffer payload) throws IOException {
+                apply(location, payload);
+            }
+
+            @Override
+            public void reset() {
+                metadata.clear();
+                wrapped.clear();
+            }
+        });
+    }
+
+    /**
+     * The metadata of a re-wrap that was started in {@code storePath} and never completed.
+     */
+    static Optional<Map<String, String>> interrupted(Path storePath, long maxSegmentBytes) throws IOException {
+        Path directory = storePath.resolve(DIRECTORY);
+        if (!Files.isDirectory(directory)) {
+            return Optional.empty();
+        }
+        try (RewrapJournal journal = new RewrapJournal(directory, maxSegmentBytes)) {
+            return journal.metadata.isEmpty() ? Optional.empty() : Optional.of(Map.copyOf(journal.metadata));
+        }
+    }
+
+    /**
+     * Opens the journal of a re-wrap committing {@code metadata}, starting a new one when none is
+     * in progress. A journal left behind by a re-wrap towards other metadata is refused, since its
+     * versions are wrapped for something else.
+     */
+    static RewrapJournal open(Path storePath, long maxSegmentBytes, Map<String, String> metadata)
+            throws IOException {
+        RewrapJournal journal = new RewrapJournal(storePath.resolve(DIRECTORY), maxSegmentBytes);
+        try {
+            if (journal.metadata.isEmpty()) {
+                List<LogEntry> entries = new ArrayList<>(metadata.size());
+                for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                    entries.add(new LogEntry.Metadata(entry.getKey(), entry.getValue()));
+                }
+                journal.log.append(LogEntry.encodeBatch(entries));
+                journal.log.sync();
+            } else if (!journal.metadata.equals(metadata)) {
+                throw new IllegalStateException("Another re-wrap is in progress in " + storePath);
+            }
+        } catch (IOException | RuntimeException exception) {
+            journal.close();
+            throw exception;
+        }
+        return journal;
+    }
+
+    /**
+     * Whether {@code record} already has a new wrapping in the journal.
+     */
+    boolean covers(SecretRecord record) {
+        return wrapping(record) != null;
+    }
+
+    /**
+     * {@code record} with its new wrapping, or {@code null} when it has none yet.
+     */
+    SecretRecord rewrapped(SecretRecord record) {
+        Wrapping wrapping = wrapping(record);
+        if (wrapping == null) {
+            return null;
+        }
+        return new SecretRecord(record.path(), wrapping.encryptedDek(), wrapping.dekIv(), record.secretIv(),
+                record.ciphertext(), record.version(), record.createdAt(), record.updatedAt());
+    }
+
+    /**
+     * Journals the re-wrapped copies of one chunk of versions in a single frame.
+     */
+    void append(List<SecretRecord> records) throws IOException {
+        List<LogEntry> entries = new ArrayList<>(records.size());
+        for (SecretRecord record : records) {
+            entries.add(new LogEntry.Version(record));
+        }
+        log.append(LogEntry.encodeBatch(entries));
+    }
+
+    void sync() throws IOException {
+        log.sync();
+    }
+
+    int size() {
+        return wrapped.size();
+    }
+
+    /**
+     * Closes the journal and removes its directory once the re-wrap is committed everywhere.
+     */
+    void delete() throws IOException {
+        close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    private Wrapping wrapping(SecretRecord record) {
+        Wrapping wrapping = wrapped.get(LogEntry.Version.key(record.path(), record.version()));
+        return wrapping != null && Arrays.equals(wrapping.tag(), tag(record)) ? wrapping : null;
+    }
+
+    private static byte[] tag(SecretRecord record) {
+        return record.isBlob() ? record.ciphertext() : record.secretIv();
+    }
+
+    private void apply(RecordLocation location, ByteBuffer payload) throws IOException {
+        LogEntry.forEach(location, payload, (entryLocation, entry, encoded) -> {
+            if (entry instanceof LogEntry.Version version) {
+                SecretRecord record = version.record();
+                wrapped.put(version.key(), new Wrapping(tag(record), record.encryptedDek(), record.dekIv()));
+            } else if (entry instanceof LogEntry.Metadata value) {
+                metadata.put(value.name(), value.value());
+            }
+        });
+    }
+
+    private record Wrapping(byte[] tag, byte[] encryptedDek, byte[] dekIv) {
+    }
+}
@@ -1,5 +1,11 @@
 package com.example.vault.storage;
 
+import java.time.Instant;
+
+/**
+ * One version of a secret. For a secret kept in a blob file ({@link #isBlob()}), the secret IV is
+ * empty and the ciphertext holds the encoded {@link BlobRef} instead of the secret.
+ */
 public record SecretRecord(
         String path,
         byte[] encryptedDek,
@@ -7,6 +13,10 @@ public record SecretRecord(
         byte[] secretIv,
         byte[] ciphertext,
         int version,
-        String createdAt,
-        String updatedAt) {
+        Instant createdAt,
+        Instant updatedAt) {
+
+    public boolean isBlob() {
+        return secretIv.length == 0;
+    }
 }
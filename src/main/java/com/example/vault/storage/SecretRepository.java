@@ -1,144 +1,1047 @@
 package com.example.vault.storage;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Base64;
-import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-public class SecretRepository {
-    private static final String SECRET_PREFIX = "secret.";
+/**
+ * Secret store backed by a {@link SegmentLog}. Every live record is decoded once and kept in
+ * memory, so reads are a map lookup; the only per-read check against the disk is the shared
+ * generation counter, which tells whether another process has appended since. A full replay reads
+ * the segments in parallel into {@link SegmentLoad}s and builds the index from them in one pass.
+ *
+ * <p>Writes go through a {@link GroupCommitter}: concurrent callers share one append and one
+ * fsync, and each call returns once its change is durable. Versions are assigned on the writer
+ * thread, where {@code staged} carries the changes of the group being encoded; a conditional
+ * {@link #save(SecretRecord, int)} checks the expected version there too.
+ *
+ * <p>Replaced and deleted records are handed to a {@link VersionHistory}, which keeps the last
+ * versions of each path as configured per prefix with {@link #setRetention}. The latest version
+ * stays a single lookup in the resident index; older ones are read from the history log on
+ * demand.
+ *
+ * <p>{@link #rewrap} swaps the wrapped DEK of every stored version without touching ciphertexts;
+ * its progress is journaled in a {@link RewrapJournal} so an interrupted run can be finished.
+ *
+ * <p>Large secrets are sealed into files of the {@link BlobStore}, and only a {@link BlobRef}
+ * pointing at the file goes into the log.
+ *
+ * <p>Every applied frame that bumps a version, whether written here or by another process, is
+ * published to a {@link ChangeFeed} that {@link #changes} reads and waits on.
+ *
+ * <p>{@link #backup} streams a point-in-time {@link Snapshot} of the store without holding up
+ * writers, and {@link #restore} loads one into an empty store.
+ */
+public class SecretRepository implements Closeable {
+    private static final String RETENTION_PREFIX = "retention.";
+    private static final int REWRAP_CHUNK = 4096;
+    private static final int SNAPSHOT_CHUNK_PATHS = 4096;
+    private static final int SNAPSHOT_WINDOW_PER_THREAD = 2;
+    private static final long CHANGE_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
 
     private final Path storePath;
+    private final SegmentLog log;
+    private final Compactor compactor;
+    private final GroupCommitter committer;
+    private final VersionHistory history;
+    private final BlobStore blobs;
+    private final ChangeFeed changeFeed = new ChangeFeed(ChangeFeed.DEFAULT_CAPACITY);
+    private final Map<String, SecretRecord> staged = new HashMap<>();
+    private final List<VersionHistory.Change> superseded = new ArrayList<>();
+    private final List<Unstage> unstaging = new ArrayList<>();
+    private volatile Index index = Index.EMPTY;
+    private List<SegmentLoad> loading;
 
-    public SecretRepository(Path storePath) {
+    public SecretRepository(Path storePath) throws IOException {
+        this(storePath, CommitSettings.DEFAULT);
+    }
+
+    public SecretRepository(Path storePath, CommitSettings commitSettings) throws IOException {
+        this(storePath, SegmentLog.DEFAULT_MAX_SEGMENT_BYTES, commitSettings);
+    }
+
+    SecretRepository(Path storePath, long maxSegmentBytes) throws IOException {
+        this(storePath, maxSegmentBytes, CommitSettings.DEFAULT);
+    }
+
+    SecretRepository(Path storePath, long maxSegmentBytes, CommitSettings commitSettings) throws IOException {
         this.storePath = Objects.requireNonNull(storePath, "storePath");
+        StoreMigration.migrateIfNeeded(storePath);
+        this.log = SegmentLog.open(storePath, maxSegmentBytes, new SegmentLog.ReplayListener() {
+            @Override
+            public void accept(RecordLocation location, ByteBuffer payload) throws IOException {
+                apply(location, payload);
+            }
+
+            @Override
+            public void reset() {
+                loading = new ArrayList<>();
+            }
+
+            @Override
+            public SegmentLog.FrameVisitor segment(Segment segment) {
+                SegmentLoad load = new SegmentLoad();
+                loading.add(load);
+                return load;
+            }
+
+            @Override
+            public void replayed() {
+                load(loading);
+                loading = null;
+                changeFeed.invalidate();
+            }
+        });
+        this.compactor = new Compactor(log, this::relocated);
+        this.history = new VersionHistory(storePath, maxSegmentBytes);
+        this.blobs = new BlobStore(storePath);
+        this.committer = new GroupCommitter(log, Objects.requireNonNull(commitSettings, "commitSettings"),
+                new GroupCommitter.GroupListener() {
+                    @Override
+                    public void encoded() throws IOException {
+                        if (!superseded.isEmpty()) {
+                            history.archive(superseded, SecretRepository.this::retention);
+                        }
+                    }
+
+                    @Override
+                    public void finished() {
+                        staged.clear();
+                        superseded.clear();
+                    }
+                });
+        compactor.maybeSchedule(log.segments());
     }
 
     public Optional<SecretRecord> get(String path) throws IOException {
-        Properties properties = StoreFile.load(storePath);
-        String encodedPath = encodePath(path);
-        String baseKey = keyPrefix(encodedPath);
-        String ciphertext = properties.getProperty(baseKey + "ciphertext");
-        if (ciphertext == null) {
-            return Optional.empty();
-        }
-        return Optional.of(new SecretRecord(
-                path,
-                decode(properties, baseKey + "encryptedDek"),
-                decode(properties, baseKey + "dekIv"),
-                decode(properties, baseKey + "secretIv"),
-                decode(properties, baseKey + "ciphertext"),
-                Integer.parseInt(properties.getProperty(baseKey + "version", "1")),
-                properties.getProperty(baseKey + "createdAt"),
-                properties.getProperty(baseKey + "updatedAt")));
-    }
-
-    public void save(SecretRecord record) throws IOException {
-        Properties properties = StoreFile.load(storePath);
-        String encodedPath = encodePath(record.path());
-        String baseKey = keyPrefix(encodedPath);
-        String existingVersion = properties.getProperty(baseKey + "version");
-        int nextVersion = existingVersion == null ? record.version() : Integer.parseInt(existingVersion) + 1;
-        String createdAt = properties.getProperty(baseKey + "createdAt");
-        String now = Instant.now().toString();
-        properties.setProperty(baseKey + "encryptedDek", encode(record.encryptedDek()));
-        properties.setProperty(baseKey + "dekIv", encode(record.dekIv()));
-        properties.setProperty(baseKey + "secretIv", encode(record.secretIv()));
-        properties.setProperty(baseKey + "ciphertext", encode(record.ciphertext()));
-        properties.setProperty(baseKey + "version", Integer.toString(nextVersion));
-        properties.setProperty(baseKey + "createdAt", createdAt == null ? now : createdAt);
-        properties.setProperty(baseKey + "updatedAt", now);
-        properties.setProperty(baseKey + "path", record.path());
-        StoreFile.save(storePath, properties);
+        log.refresh();
+        IndexEntry entry = index.secrets().get(path);
+        return entry == null ? Optional.empty() : Optional.of(entry.record());
     }
 
-    public void delete(String path) throws IOException {
-        Properties properties = StoreFile.load(storePath);
-        String encodedPath = encodePath(path);
-        String baseKey = keyPrefix(encodedPath);
-        boolean removed = false;
-        for (String suffix : List.of("encryptedDek", "dekIv", "secretIv", "ciphertext", "version", "createdAt",
-                "updatedAt", "path")) {
-            removed |= properties.remove(baseKey + suffix) != null;
+    /**
+     * Returns {@code version} of the secret at {@code path}: the latest one from the resident
+     * index, an older one from the version history.
+     */
+    public Optional<SecretRecord> get(String path, int version) throws IOException {
+        Optional<SecretRecord> latest = get(path);
+        if (latest.isEmpty() || latest.get().version() <= version) {
+            return latest.filter(record -> record.version() == version);
+        }
+        return history.read(path, version);
+    }
+
+    /**
+     * The versions of the secret at {@code path} that can still be read, oldest first and ending
+     * with the latest; empty when there is no secret at the path.
+     */
+    public List<Integer> versions(String path) throws IOException {
+        Optional<SecretRecord> latest = get(path);
+        if (latest.isEmpty()) {
+            return List.of();
         }
-        if (removed) {
-            StoreFile.save(storePath, properties);
+        int current = latest.get().version();
+        List<Integer> versions = new ArrayList<>();
+        for (int version : history.versions(path)) {
+            if (version < current) {
+                versions.add(version);
+            }
+        }
+        versions.add(current);
+        return versions;
+    }
+
+    /**
+     * Keeps the last {@code versions} superseded versions of every path under {@code prefix}; the
+     * longest matching prefix wins and paths without one keep no history. Lowering a retention
+     * prunes each path the next time it is written.
+     */
+    public void setRetention(String prefix, int versions) throws IOException {
+        if (versions < 0) {
+            throw new IllegalArgumentException("Retention must not be negative");
         }
+        saveMetadata(Map.of(RETENTION_PREFIX + prefix, Integer.toString(versions)));
+    }
+
+    public Map<String, Integer> retention() throws IOException {
+        log.refresh();
+        Map<String, Integer> retention = new TreeMap<>();
+        PathIndex<MetadataEntry> metadata = index.metadata();
+        for (String name : metadata.list(RETENTION_PREFIX)) {
+            retention.put(name.substring(RETENTION_PREFIX.length()), Integer.parseInt(metadata.get(name).value()));
+        }
+        return retention;
+    }
+
+    /**
+     * Stores {@code record} as the next version of its path and returns that version.
+     */
+    public int save(SecretRecord record) throws IOException {
+        int[] stored = new int[1];
+        write(() -> {
+            LogEntry.Put put = stage(record);
+            stored[0] = put.record().version();
+            return put.encode();
+        });
+        return stored[0];
+    }
+
+    /**
+     * Stores {@code record} only if the secret at its path is at {@code expectedVersion}, or
+     * absent when it is 0, and returns the version it was stored as. The check runs on the writer
+     * thread against the committed state plus the group being encoded, so of two writers expecting
+     * the same version exactly one wins; the other gets a {@link VersionConflictException}.
+     */
+    public int save(SecretRecord record, int expectedVersion) throws IOException {
+        int[] stored = new int[1];
+        write(() -> {
+            SecretRecord existing = current(record.path());
+            int actual = existing == null ? 0 : existing.version();
+            if (actual != expectedVersion) {
+                throw new VersionConflictException(record.path(), expectedVersion, actual);
+            }
+            LogEntry.Put put = stage(record);
+            stored[0] = put.record().version();
+            return put.encode();
+        });
+        return stored[0];
+    }
+
+    /**
+     * Stores {@code records} and deletes {@code deletedPaths} as one update: the changes go into
+     * a single log frame, so after a crash either all of them are visible or none is.
+     */
+    public void commit(List<SecretRecord> records, List<String> deletedPaths) throws IOException {
+        write(() -> {
+            List<LogEntry> entries = new ArrayList<>(records.size() + deletedPaths.size());
+            for (SecretRecord record : records) {
+                entries.add(stage(record));
+            }
+            for (String path : deletedPaths) {
+                LogEntry.Delete delete = stageDelete(path);
+                if (delete != null) {
+                    entries.add(delete);
+                }
+            }
+            return entries.isEmpty() ? null : LogEntry.encodeBatch(entries);
+        });
+    }
+
+    public void delete(String path) throws IOException {
+        write(() -> {
+            LogEntry.Delete delete = stageDelete(path);
+            return delete == null ? null : delete.encode();
+        });
     }
 
     public List<String> list(String prefix) throws IOException {
-        Properties properties = StoreFile.load(storePath);
-        List<String> results = new ArrayList<>();
-        String encodedPrefix = SECRET_PREFIX;
-        for (String key : properties.stringPropertyNames()) {
-            if (!key.startsWith(encodedPrefix) || !key.endsWith(".path")) {
-                continue;
+        log.refresh();
+        return index.secrets().list(prefix);
+    }
+
+    public List<String> listKeys(String path) throws IOException {
+        log.refresh();
+        return index.secrets().children(path.endsWith("/") ? path : path + "/");
+    }
+
+    /**
+     * The paths under {@code prefix} in order, starting after {@code after} when it is not
+     * {@code null}. The iterator is lazy and reads the index as it was when this was called.
+     */
+    public Iterator<String> iterate(String prefix, String after) throws IOException {
+        log.refresh();
+        return index.secrets().paths(prefix, after);
+    }
+
+    /**
+     * The key names directly under {@code path} in order, starting after {@code after} when it is
+     * not {@code null}; lazy in the same way as {@link #iterate}.
+     */
+    public Iterator<String> iterateKeys(String path, String after) throws IOException {
+        log.refresh();
+        return index.secrets().children(path.endsWith("/") ? path : path + "/", after);
+    }
+
+    /**
+     * Up to {@code limit} changes to paths under {@code prefix} after sequence number
+     * {@code after} (from now on when it is negative), waiting up to {@code wait} for the first
+     * one. While waiting, the log is checked for frames of other processes a few times a second.
+     */
+    public ChangeFeed.Batch changes(String prefix, long after, int limit, Duration wait) throws IOException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        log.refresh();
+        long cursor = after < 0 ? changeFeed.head() : after;
+        long deadline = System.nanoTime() + wait.toNanos();
+        try {
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                ChangeFeed.Batch batch = changeFeed.read(prefix, cursor, limit,
+                        Math.max(0, Math.min(remaining, CHANGE_REFRESH_NANOS)));
+                if (batch.reset() || !batch.events().isEmpty() || remaining <= CHANGE_REFRESH_NANOS) {
+                    return batch;
+                }
+                cursor = batch.cursor();
+                log.refresh();
             }
-            String value = properties.getProperty(key);
-            if (value != null && value.startsWith(prefix)) {
-                results.add(value);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for changes");
+        }
+    }
+
+    public ChangeFeed changeFeed() {
+        return changeFeed;
+    }
+
+    public Map<String, String> loadMetadata() throws IOException {
+        log.refresh();
+        Map<String, String> values = new HashMap<>();
+        PathIndex<MetadataEntry> metadata = index.metadata();
+        for (String name : metadata.list("")) {
+            values.put(name, metadata.get(name).value());
+        }
+        return values;
+    }
+
+    public void saveMetadata(Map<String, String> entries) throws IOException {
+        write(() -> {
+            List<LogEntry> changed = new ArrayList<>();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                MetadataEntry current = index.metadata().get(entry.getKey());
+                if (current == null || !current.value().equals(entry.getValue())) {
+                    changed.add(new LogEntry.Metadata(entry.getKey(), entry.getValue()));
+                }
+            }
+            if (changed.isEmpty()) {
+                return null;
             }
+            return changed.size() == 1 ? changed.get(0).encode() : LogEntry.encodeBatch(changed);
+        });
+    }
+
+    public Optional<String> metadata(String name) throws IOException {
+        log.refresh();
+        MetadataEntry entry = index.metadata().get(name);
+        return entry == null ? Optional.empty() : Optional.of(entry.value());
+    }
+
+    /**
+     * The metadata of a {@link #rewrap} that was interrupted, which has to be finished with the
+     * same metadata before another one can start.
+     */
+    public Optional<Map<String, String>> interruptedRewrap() throws IOException {
+        return RewrapJournal.interrupted(storePath, log.maxSegmentBytes());
+    }
+
+    /**
+     * Replaces the wrapped DEK of every stored version, latest and archived, and stores
+     * {@code metadata} with them. Ciphertexts, versions and timestamps stay as they are.
+     *
+     * <p>{@code rewrapper} gets the versions in chunks and returns them in the same order; only
+     * the encrypted DEK and DEK IV it returns are used. Each chunk is journaled as it comes back,
+     * so calling this again with the same metadata after an interruption only hands over what is
+     * left. The latest versions are then swapped in together with {@code metadata} in a single
+     * frame: readers see either the old wrapping and metadata or the new ones. A secret written
+     * while the chunks were being wrapped is caught up before that frame is built. Archived
+     * versions are rewritten in the history log afterwards.
+     *
+     * @return the number of versions re-wrapped, including those of an interrupted run
+     */
+    public int rewrap(Map<String, String> metadata, Rewrapper rewrapper) throws IOException, GeneralSecurityException {
+        try (RewrapJournal journal = RewrapJournal.open(storePath, log.maxSegmentBytes(), metadata)) {
+            if (!hasMetadata(metadata)) {
+                do {
+                    journalPending(journal, rewrapper);
+                } while (!commitRewrapped(journal, metadata));
+            }
+            history.rewrap(journal);
+            int rewrapped = journal.size();
+            journal.delete();
+            return rewrapped;
         }
-        results.sort(Comparator.naturalOrder());
-        return results;
     }
 
+    /**
+     * Writes a snapshot of the store to {@code target} and returns the number of versions in it.
+     * The latest versions and the metadata are those of one moment, taken from a single state of
+     * the index while writers carry on. Archived versions are read as the snapshot gets to them,
+     * so one pruned in the meantime is left out. Chunks of paths are encoded on
+     * {@code parallelism} threads and written in order, each after the blob files it points at.
+     */
+    public long backup(WritableByteChannel target, int parallelism) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        if (interruptedRewrap().isPresent()) {
+            throw new IllegalStateException("A master key rotation is in progress; finish it before backing up");
+        }
+        log.refresh();
+        Index snapshot = index;
+        Snapshot.Writer writer = new Snapshot.Writer(target);
+        List<LogEntry> metadata = new ArrayList<>();
+        for (String name : snapshot.metadata().list("")) {
+            metadata.add(new LogEntry.Metadata(name, snapshot.metadata().get(name).value()));
+        }
+        writer.entries(LogEntry.encodeBatch(metadata), metadata.size());
+        ExecutorService executor = snapshotExecutor(parallelism, "vault-backup");
+        try {
+            Deque<Future<BackupChunk>> window = new ArrayDeque<>();
+            Iterator<String> paths = snapshot.secrets().paths("", null);
+            while (paths.hasNext()) {
+                List<String> chunk = new ArrayList<>(SNAPSHOT_CHUNK_PATHS);
+                while (chunk.size() < SNAPSHOT_CHUNK_PATHS && paths.hasNext()) {
+                    chunk.add(paths.next());
+                }
+                window.add(executor.submit(() -> encodeBackup(snapshot.secrets(), chunk)));
+                while (window.size() >= parallelism * SNAPSHOT_WINDOW_PER_THREAD) {
+                    writeBackup(writer, await(window.remove()));
+                }
+            }
+            while (!window.isEmpty()) {
+                writeBackup(writer, await(window.remove()));
+            }
+        } catch (GeneralSecurityException exception) {
+            throw new IOException("Unexpected failure while backing up", exception);
+        } finally {
+            executor.shutdownNow();
+        }
+        writer.finish();
+        return writer.entries() - metadata.size();
+    }
 
-    public List<String> listKeys(String path) throws IOException {
-        String normalized = path.endsWith("/") ? path : path + "/";
-        List<String> descendants = list(normalized);
-        List<String> keys = new ArrayList<>();
-        for (String descendant : descendants) {
-            String remainder = descendant.substring(normalized.length());
-            if (remainder.isEmpty()) {
-                continue;
+    /**
+     * Loads a snapshot written by {@link #backup} into this store, which must be empty. Frames
+     * are decoded, given new wrappings by {@code restore} and committed on {@code parallelism}
+     * threads while the snapshot is still being read, with versions and timestamps as they were.
+     * Blob files are copied under their own ids as they come. The metadata chosen by
+     * {@code restore} is committed last, once the whole snapshot has been read and checked, so an
+     * interrupted restore leaves a store without master key parameters that has to be deleted.
+     *
+     * @return the number of versions restored
+     */
+    public long restore(ReadableByteChannel source, Restore restore, int parallelism)
+            throws IOException, GeneralSecurityException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        log.refresh();
+        if (index.secrets().size() > 0 || index.metadata().size() > 0 || history.exists()) {
+            throw new IllegalStateException("Can only restore into an empty store: " + storePath);
+        }
+        Snapshot.Reader reader = new Snapshot.Reader(source);
+        Snapshot.Frame first = reader.next(0, 0);
+        if (first == null || first.kind() != Snapshot.ENTRIES) {
+            throw new IOException("Snapshot does not start with the store metadata");
+        }
+        List<LogEntry> metadataEntries = LogEntry.decodeAll(first.payload());
+        Map<String, String> snapshotMetadata = new HashMap<>();
+        for (LogEntry entry : metadataEntries) {
+            if (!(entry instanceof LogEntry.Metadata value)) {
+                throw new IOException("Snapshot does not start with the store metadata");
+            }
+            snapshotMetadata.put(value.name(), value.value());
+        }
+        Map<String, String> metadata = restore.metadata(snapshotMetadata);
+        long entries = metadataEntries.size();
+        long blobFiles = 0;
+        long versions = 0;
+        ExecutorService executor = snapshotExecutor(parallelism, "vault-restore");
+        BlobStore.Writer blob = null;
+        try {
+            Deque<Future<Integer>> window = new ArrayDeque<>();
+            Snapshot.Frame frame;
+            while ((frame = reader.next(entries, blobFiles)) != null) {
+                if (frame.kind() == Snapshot.BLOB) {
+                    if (blob == null) {
+                        blob = blobs.create(frame.blobId());
+                    } else if (!blob.id().equals(frame.blobId())) {
+                        throw new IOException("Blob " + blob.id() + " is cut short in the snapshot");
+                    }
+                    ByteBuffer data = frame.blobData();
+                    while (data.hasRemaining()) {
+                        blob.write(data);
+                    }
+                    if (frame.lastPiece()) {
+                        blob.commit();
+                        blob.close();
+                        blob = null;
+                        blobFiles++;
+                    }
+                    continue;
+                }
+                if (blob != null) {
+                    throw new IOException("Blob " + blob.id() + " is cut short in the snapshot");
+                }
+                ByteBuffer payload = frame.payload();
+                entries += LogEntry.count(payload);
+                window.add(executor.submit(() -> restoreEntries(payload, restore)));
+                while (window.size() >= parallelism * SNAPSHOT_WINDOW_PER_THREAD) {
+                    versions += await(window.remove());
+                }
             }
-            int separator = remainder.indexOf('/');
-            String key = separator >= 0 ? remainder.substring(0, separator) : remainder;
-            if (!key.isEmpty() && !keys.contains(key)) {
-                keys.add(key);
+            while (!window.isEmpty()) {
+                versions += await(window.remove());
+            }
+        } finally {
+            executor.shutdownNow();
+            if (blob != null) {
+                blob.close();
             }
         }
-        keys.sort(Comparator.naturalOrder());
-        return keys;
+        saveMetadata(metadata);
+        return versions;
+    }
+
+    public BlobStore blobs() {
+        return blobs;
     }
 
-    public Properties loadProperties() throws IOException {
-        return StoreFile.load(storePath);
+    /**
+     * Removes blob files that no stored version, latest or archived, points at any more and that
+     * are older than {@code grace}, which must cover the time from writing a blob to saving its
+     * record. Returns how many files were removed.
+     */
+    public int sweepBlobs(Duration grace) throws IOException {
+        Instant cutoff = Instant.now().minus(grace);
+        log.refresh();
+        PathIndex<IndexEntry> secrets = index.secrets();
+        Set<String> referenced = new HashSet<>();
+        for (String path : secrets.list("")) {
+            SecretRecord latest = secrets.get(path).record();
+            if (latest.isBlob()) {
+                referenced.add(BlobRef.of(latest).id());
+            }
+            for (int version : history.versions(path)) {
+                Optional<SecretRecord> archived = history.read(path, version);
+                if (archived.isPresent() && archived.get().isBlob()) {
+                    referenced.add(BlobRef.of(archived.get()).id());
+                }
+            }
+        }
+        return blobs.sweep(referenced, cutoff);
     }
 
-    public void saveProperties(Properties properties) throws IOException {
-        StoreFile.save(storePath, properties);
+    public CommitStats commitStats() {
+        return committer.stats();
     }
 
     public Path storePath() {
         return storePath;
     }
 
-    private String keyPrefix(String encodedPath) {
-        return SECRET_PREFIX + encodedPath + ".";
+    @Override
+    public void close() throws IOException {
+        committer.close();
+        compactor.close();
+        history.close();
+        log.close();
     }
 
-    private String encodePath(String path) {
-        return Base64.getUrlEncoder().withoutPadding().encodeToString(path.getBytes(StandardCharsets.UTF_8));
+    /**
+     * The latest version of every path in {@code paths} and its archived versions older than that,
+     * as one batch for a snapshot, with the blob files they point at.
+     */
+    private BackupChunk encodeBackup(PathIndex<IndexEntry> secrets, List<String> paths) throws IOException {
+        List<LogEntry> entries = new ArrayList<>(paths.size());
+        List<String> blobIds = new ArrayList<>();
+        for (String path : paths) {
+            SecretRecord latest = secrets.get(path).record();
+            for (int version : history.versions(path)) {
+                Optional<SecretRecord> archived = version < latest.version()
+                        ? history.read(path, version)
+                        : Optional.empty();
+                if (archived.isPresent()) {
+                    entries.add(new LogEntry.Version(archived.get()));
+                    if (archived.get().isBlob()) {
+                        blobIds.add(BlobRef.of(archived.get()).id());
+                    }
+                }
+            }
+            entries.add(new LogEntry.Put(latest));
+            if (latest.isBlob()) {
+                blobIds.add(BlobRef.of(latest).id());
+            }
+        }
+        return new BackupChunk(LogEntry.encodeBatch(entries), entries.size(), blobIds);
     }
 
-    private String encode(byte[] bytes) {
-        return Base64.getEncoder().encodeToString(bytes);
+    private void writeBackup(Snapshot.Writer writer, BackupChunk chunk) throws IOException {
+        for (String id : chunk.blobIds()) {
+            try (FileChannel blob = blobs.open(id)) {
+                writer.blob(id, blob);
+            }
+        }
+        writer.entries(chunk.batch(), chunk.entries());
     }
 
-    private byte[] decode(Properties properties, String key) {
-        String value = properties.getProperty(key);
-        if (value == null) {
-            return new byte[0];
+    /**
+     * Stores one batch of a snapshot: archived versions go straight to the history log, latest
+     * versions are committed as they are. Returns the number of versions stored.
+     */
+    private int restoreEntries(ByteBuffer payload, Restore restore) throws IOException, GeneralSecurityException {
+        List<SecretRecord> records = new ArrayList<>();
+        int latest = 0;
+        for (LogEntry entry : LogEntry.decodeAll(payload)) {
+            if (entry instanceof LogEntry.Put put) {
+                records.add(latest++, put.record());
+            } else if (entry instanceof LogEntry.Version version) {
+                records.add(version.record());
+            } else {
+                throw new IOException("Unexpected entry in snapshot: " + entry.key());
+            }
+        }
+        List<SecretRecord> rewrapped = restore.rewrap(List.copyOf(records));
+        if (rewrapped.size() != records.size()) {
+            throw new IllegalStateException("Rewrapper returned " + rewrapped.size() + " records for "
+                    + records.size());
+        }
+        List<SecretRecord> restored = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            SecretRecord record = records.get(i);
+            SecretRecord wrapped = rewrapped.get(i);
+            restored.add(new SecretRecord(record.path(), wrapped.encryptedDek(), wrapped.dekIv(), record.secretIv(),
+                    record.ciphertext(), record.version(), record.createdAt(), record.updatedAt()));
+        }
+        if (latest < restored.size()) {
+            history.restore(restored.subList(latest, restored.size()));
+        }
+        List<SecretRecord> puts = restored.subList(0, latest);
+        if (!puts.isEmpty()) {
+            write(() -> {
+                List<LogEntry> entries = new ArrayList<>(puts.size());
+                for (SecretRecord record : puts) {
+                    entries.add(new LogEntry.Put(record));
+                    stage(record.path(), record);
+                }
+                return LogEntry.encodeBatch(entries);
+            });
+        }
+        return restored.size();
+    }
+
+    private static ExecutorService snapshotExecutor(int parallelism, String name) {
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static <T> T await(Future<T> future) throws IOException, GeneralSecurityException {
+        try {
+            return future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a snapshot chunk");
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof GeneralSecurityException security) {
+                throw security;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private boolean hasMetadata(Map<String, String> entries) throws IOException {
+        log.refresh();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            MetadataEntry current = index.metadata().get(entry.getKey());
+            if (current == null || !current.value().equals(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands every version without a new wrapping in {@code journal} to {@code rewrapper}, a chunk
+     * at a time, and journals the results.
+     */
+    private void journalPending(RewrapJournal journal, Rewrapper rewrapper) throws IOException, GeneralSecurityException {
+        log.refresh();
+        PathIndex<IndexEntry> secrets = index.secrets();
+        List<SecretRecord> chunk = new ArrayList<>(REWRAP_CHUNK);
+        for (String path : secrets.list("")) {
+            SecretRecord latest = secrets.get(path).record();
+            if (!journal.covers(latest)) {
+                chunk.add(latest);
+            }
+            for (int version : history.versions(path)) {
+                Optional<SecretRecord> archived = version < latest.version()
+                        ? history.read(path, version)
+                        : Optional.empty();
+                if (archived.isPresent() && !journal.covers(archived.get())) {
+                    chunk.add(archived.get());
+                }
+            }
+            if (chunk.size() >= REWRAP_CHUNK) {
+                journalRewrapped(journal, rewrapper, chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            journalRewrapped(journal, rewrapper, chunk);
+        }
+        journal.sync();
+    }
+
+    private static void journalRewrapped(RewrapJournal journal, Rewrapper rewrapper, List<SecretRecord> chunk)
+            throws IOException, GeneralSecurityException {
+        List<SecretRecord> rewrapped = rewrapper.rewrap(List.copyOf(chunk));
+        if (rewrapped.size() != chunk.size()) {
+            throw new IllegalStateException("Rewrapper returned " + rewrapped.size() + " records for "
+                    + chunk.size());
+        }
+        List<SecretRecord> journaled = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            SecretRecord record = chunk.get(i);
+            SecretRecord wrapped = rewrapped.get(i);
+            journaled.add(new SecretRecord(record.path(), wrapped.encryptedDek(), wrapped.dekIv(), record.secretIv(),
+                    record.ciphertext(), record.version(), record.createdAt(), record.updatedAt()));
+        }
+        journal.append(journaled);
+    }
+
+    /**
+     * Swaps in the journaled wrapping of every latest version together with {@code metadata} as
+     * one frame. Returns {@code false} without writing anything when a secret has changed since it
+     * was journaled, so the caller can journal it and try again.
+     */
+    private boolean commitRewrapped(RewrapJournal journal, Map<String, String> metadata) throws IOException {
+        boolean[] complete = {true};
+        write(() -> {
+            if (!staged.isEmpty()) {
+                complete[0] = false;
+                return null;
+            }
+            PathIndex<IndexEntry> secrets = index.secrets();
+            List<LogEntry> entries = new ArrayList<>(secrets.size() + metadata.size());
+            for (String path : secrets.list("")) {
+                SecretRecord rewrapped = journal.rewrapped(secrets.get(path).record());
+                if (rewrapped == null) {
+                    complete[0] = false;
+                    staged.clear();
+                    return null;
+                }
+                entries.add(new LogEntry.Put(rewrapped));
+                stage(path, rewrapped);
+            }
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                entries.add(new LogEntry.Metadata(entry.getKey(), entry.getValue()));
+            }
+            return LogEntry.encodeBatch(entries);
+        });
+        return complete[0];
+    }
+
+    /**
+     * Commits {@code mutation}. When it throws while encoding, what it staged is undone before the
+     * failure reaches the committer, so the rest of its group never sees versions that are not
+     * written.
+     */
+    private void write(GroupCommitter.Mutation mutation) throws IOException {
+        committer.commit(() -> {
+            int archived = superseded.size();
+            unstaging.clear();
+            try {
+                return mutation.encode();
+            } catch (IOException | RuntimeException exception) {
+                for (int i = unstaging.size() - 1; i >= 0; i--) {
+                    Unstage undo = unstaging.get(i);
+                    if (undo.present()) {
+                        staged.put(undo.path(), undo.previous());
+                    } else {
+                        staged.remove(undo.path());
+                    }
+                }
+                superseded.subList(archived, superseded.size()).clear();
+                throw exception;
+            } finally {
+                unstaging.clear();
+            }
+        });
+        compactor.maybeSchedule(log.segments());
+    }
+
+    /**
+     * Stages {@code record} ({@code null} for a delete) at {@code path} for the group being
+     * encoded, remembering what was staged before in case the mutation fails.
+     */
+    private void stage(String path, SecretRecord record) {
+        unstaging.add(new Unstage(path, staged.containsKey(path), staged.get(path)));
+        staged.put(path, record);
+    }
+
+    /**
+     * The record currently stored at {@code path} as seen by the writer thread, including changes
+     * of the group being encoded.
+     */
+    private SecretRecord current(String path) {
+        if (staged.containsKey(path)) {
+            return staged.get(path);
+        }
+        IndexEntry entry = index.secrets().get(path);
+        return entry == null ? null : entry.record();
+    }
+
+    private LogEntry.Put stage(SecretRecord record) {
+        SecretRecord existing = current(record.path());
+        SecretRecord stored = versioned(record, existing);
+        stage(stored.path(), stored);
+        if (existing != null) {
+            superseded.add(new VersionHistory.Change(existing, false));
+        }
+        return new LogEntry.Put(stored);
+    }
+
+    private LogEntry.Delete stageDelete(String path) {
+        SecretRecord existing = current(path);
+        if (existing == null) {
+            return null;
+        }
+        stage(path, null);
+        superseded.add(new VersionHistory.Change(existing, true));
+        return new LogEntry.Delete(path);
+    }
+
+    /**
+     * How many superseded versions to keep for {@code path}, from the longest retention prefix
+     * that matches it.
+     */
+    private int retention(String path) {
+        PathIndex<MetadataEntry> metadata = index.metadata();
+        String matched = null;
+        int versions = 0;
+        for (String name : metadata.list(RETENTION_PREFIX)) {
+            String prefix = name.substring(RETENTION_PREFIX.length());
+            if (path.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+                versions = Integer.parseInt(metadata.get(name).value());
+            }
+        }
+        return versions;
+    }
+
+    private static SecretRecord versioned(SecretRecord record, SecretRecord existing) {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        int nextVersion = existing == null ? record.version() : existing.version() + 1;
+        Instant createdAt = existing == null ? now : existing.createdAt();
+        return new SecretRecord(
+                record.path(),
+                record.encryptedDek(),
+                record.dekIv(),
+                record.secretIv(),
+                record.ciphertext(),
+                nextVersion,
+                createdAt == null ? now : createdAt,
+                now);
+    }
+
+    /**
+     * Applies every entry of one frame to a copy of the index and publishes it in one step, so
+     * readers see either all of a batch or none of it.
+     */
+    private synchronized void apply(RecordLocation location, ByteBuffer payload) throws IOException {
+        Index[] current = {index};
+        List<ChangeFeed.Change> changes = new ArrayList<>();
+        LogEntry.forEach(location, payload, (entryLocation, entry, encoded) -> {
+            ChangeFeed.Change change = change(current[0], entry);
+            if (change != null) {
+                changes.add(change);
+            }
+            current[0] = current[0].apply(entryLocation, entry);
+        });
+        index = current[0];
+        if (!changes.isEmpty()) {
+            changeFeed.append(changes);
+        }
+    }
+
+    /**
+     * Publishes the index of a full replay from the loads of all segments, oldest first: an entry
+     * of a later segment replaces the one of an earlier segment, which becomes dead, and a path
+     * whose last entry is a delete is left out. The index is then built in one pass.
+     */
+    private synchronized void load(List<SegmentLoad> loads) {
+        Map<String, IndexEntry> secrets = new HashMap<>();
+        Map<String, MetadataEntry> metadata = new HashMap<>();
+        for (SegmentLoad load : loads) {
+            for (Map.Entry<String, IndexEntry> entry : load.secrets.entrySet()) {
+                IndexEntry latest = entry.getValue();
+                markDead(latest == null ? secrets.remove(entry.getKey()) : secrets.put(entry.getKey(), latest));
+            }
+            for (Map.Entry<String, MetadataEntry> entry : load.metadata.entrySet()) {
+                markDead(metadata.put(entry.getKey(), entry.getValue()));
+            }
+        }
+        index = new Index(PathIndex.of(secrets), PathIndex.of(metadata));
+    }
+
+    /**
+     * The change {@code entry} makes to {@code before}, or {@code null} when it leaves every
+     * version as it was.
+     */
+    private static ChangeFeed.Change change(Index before, LogEntry entry) {
+        if (entry instanceof LogEntry.Put put) {
+            IndexEntry previous = before.secrets().get(put.key());
+            int version = put.record().version();
+            return previous != null && previous.record().version() == version
+                    ? null
+                    : new ChangeFeed.Change(ChangeFeed.Type.PUT, put.key(), version);
+        }
+        if (entry instanceof LogEntry.Delete) {
+            IndexEntry previous = before.secrets().get(entry.key());
+            return previous == null
+                    ? null
+                    : new ChangeFeed.Change(ChangeFeed.Type.DELETE, entry.key(), previous.record().version());
+        }
+        return null;
+    }
+
+    private synchronized boolean relocated(Compactor.EntryKey key, RecordLocation from, RecordLocation to) {
+        Index current = index;
+        if (key.metadata()) {
+            MetadataEntry entry = current.metadata().get(key.name());
+            if (entry == null || !entry.location().equals(from)) {
+                return false;
+            }
+            MetadataEntry moved = new MetadataEntry(entry.value(), to);
+            index = new Index(current.secrets(), current.metadata().with(key.name(), moved));
+            return true;
+        }
+        IndexEntry entry = current.secrets().get(key.name());
+        if (entry == null || !entry.location().equals(from)) {
+            return false;
+        }
+        IndexEntry moved = new IndexEntry(entry.record(), to);
+        index = new Index(current.secrets().with(key.name(), moved), current.metadata());
+        return true;
+    }
+
+    private static void markDead(Located entry) {
+        if (entry != null) {
+            RecordLocation location = entry.location();
+            location.segment().markDead(location.length());
+        }
+    }
+
+    /**
+     * Produces new wrappings for a chunk of stored versions, for {@link #rewrap}.
+     */
+    public interface Rewrapper {
+        List<SecretRecord> rewrap(List<SecretRecord> records) throws GeneralSecurityException;
+    }
+
+    /**
+     * Fits a snapshot to the master key of the store it is restored into, for {@link #restore}.
+     * {@link #rewrap} may be called from several threads at once.
+     */
+    public interface Restore extends Rewrapper {
+        /**
+         * The metadata to store in place of {@code snapshot}, the metadata of the snapshot; called
+         * before any version is read.
+         */
+        Map<String, String> metadata(Map<String, String> snapshot) throws GeneralSecurityException;
+    }
+
+    /**
+     * What was staged at {@code path} before a mutation staged over it; {@code present} tells an
+     * earlier staged delete ({@code null}) from nothing staged.
+     */
+    private record Unstage(String path, boolean present, SecretRecord previous) {
+    }
+
+    private record BackupChunk(byte[] batch, int entries, List<String> blobIds) {
+    }
+
+    /**
+     * The entries of one segment during a full replay, reduced to the last one per path, with
+     * {@code null} for a path last deleted. Entries superseded within the segment are marked
+     * dead here, on the thread reading it.
+     */
+    private static final class SegmentLoad implements SegmentLog.FrameVisitor {
+        private final Map<String, IndexEntry> secrets = new HashMap<>();
+        private final Map<String, MetadataEntry> metadata = new HashMap<>();
+
+        @Override
+        public void accept(RecordLocation location, ByteBuffer payload) throws IOException {
+            LogEntry.forEach(location, payload, (entryLocation, entry, encoded) -> {
+                if (entry instanceof LogEntry.Put put) {
+                    markDead(secrets.put(put.key(), new IndexEntry(put.record(), entryLocation)));
+                } else if (entry instanceof LogEntry.Delete) {
+                    entryLocation.segment().markDead(entryLocation.length());
+                    markDead(secrets.put(entry.key(), null));
+                } else {
+                    LogEntry.Metadata value = (LogEntry.Metadata) entry;
+                    markDead(metadata.put(value.name(), new MetadataEntry(value.value(), entryLocation)));
+                }
+            });
+        }
+    }
+
+    private interface Located {
+        RecordLocation location();
+    }
+
+    private record IndexEntry(SecretRecord record, RecordLocation location) implements Located {
+    }
+
+    private record MetadataEntry(String value, RecordLocation location) implements Located {
+    }
+
+    /**
+     * One immutable state of the store; a new one is published for every frame applied.
+     */
+    private record Index(PathIndex<IndexEntry> secrets, PathIndex<MetadataEntry> metadata) {
+        private static final Index EMPTY = new Index(PathIndex.empty(), PathIndex.empty());
+
+        private Index apply(RecordLocation location, LogEntry entry) {
+            if (entry instanceof LogEntry.Put put) {
+                markDead(secrets.get(put.key()));
+                return new Index(secrets.with(put.key(), new IndexEntry(put.record(), location)), metadata);
+            }
+            if (entry instanceof LogEntry.Delete) {
+                markDead(secrets.get(entry.key()));
+                location.segment().markDead(location.length());
+                return new Index(secrets.without(entry.key()), metadata);
+            }
+            LogEntry.Metadata value = (LogEntry.Metadata) entry;
+            markDead(metadata.get(value.name()));
+            return new Index(secrets, metadata.with(value.name(), new MetadataEntry(value.value(), location)));
         }
-        return Base64.getDecoder().decode(value);
     }
 }
@@ -0,0 +1,101 @@
+package com.example.vault.storage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class Segment implements Closeable {
+    private final long id;
+    private final int generation;
+    private final Path path;
+    private final FileChannel channel;
+    private final AtomicLong deadBytes = new AtomicLong();
+    private volatile long size;
+
+    Segment(long id, int generation, Path path, FileChannel channel, long size) {
+        this.id = id;
+        this.generation = generation;
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    long id() {
+        return id;
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long size() {
+        return size;
+    }
+
+    void size(long size) {
+        this.size = size;
+    }
+
+    long deadBytes() {
+        return deadBytes.get();
+    }
+
+    void markDead(int length) {
+        deadBytes.addAndGet(length);
+    }
+
+    void resetDeadBytes() {
+        deadBytes.set(0);
+    }
+
+    void readFully(ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment " + path + " at offset " + offset);
+            }
+            offset += read;
+        }
+        buffer.flip();
+    }
+
+    void writeFully(ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    long fileSize() throws IOException {
+        return channel.size();
+    }
+
+    void truncate(long length) throws IOException {
+        channel.truncate(length);
+        channel.force(true);
+        this.size = length;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName().toString();
+    }
+}
@@ -0,0 +1,647 @@
+package com.example.vault.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of checksummed frames spread over a directory of segment files.
+ *
+ * <p>Every segment starts with a magic/version header followed by frames of the form
+ * {@code [int payloadLength][int crc32c(payload)][payload]}. Only the newest segment is ever
+ * appended to; once it grows past {@code maxSegmentBytes} it is sealed and a new one is started.
+ * Sealed segments are rewritten by {@link Compactor}, which installs its output under the id of
+ * the newest merged segment with a higher generation so replay order stays intact.
+ *
+ * <p>Appends and segment installs hold an exclusive lock on the {@code LOCK} file so several
+ * processes can share one store directory without overwriting each other's frames. Each of them
+ * bumps the shared {@link StoreGeneration}; when another process has moved it, the frames this
+ * process has not seen yet are replayed into the {@link ReplayListener} before continuing.
+ */
+final class SegmentLog implements Closeable {
+    static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+    static final int HEADER_BYTES = 8;
+    static final int FRAME_HEADER_BYTES = 8;
+
+    private static final int MAGIC = 0x56534547;
+    private static final int FORMAT_VERSION = 1;
+    private static final int READ_CHUNK_BYTES = 1 << 16;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("([0-9a-f]{16})-(\\d+)\\.seg");
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Comparator<SegmentName> SEGMENT_ORDER =
+            Comparator.comparingLong(SegmentName::id).thenComparingInt(SegmentName::generation);
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final ReplayListener listener;
+    private final FileChannel lockChannel;
+    private final FileChannel compactionLockChannel;
+    private final StoreGeneration generation;
+    private final List<Segment> retired = new ArrayList<>();
+    private volatile List<Segment> segments = new ArrayList<>();
+    private volatile Segment active;
+    private volatile long seenGeneration;
+    private Segment tail;
+    private long tailOffset;
+
+    private SegmentLog(Path directory, long maxSegmentBytes, ReplayListener listener) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.listener = listener;
+        this.lockChannel = FileChannel.open(directory.resolve("LOCK"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.compactionLockChannel = FileChannel.open(directory.resolve("COMPACT"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.generation = StoreGeneration.open(directory.resolve("GENERATION"));
+    }
+
+    static SegmentLog open(Path directory, long maxSegmentBytes, ReplayListener listener) throws IOException {
+        Objects.requireNonNull(listener, "listener");
+        Files.createDirectories(directory);
+        SegmentLog log = new SegmentLog(directory, maxSegmentBytes, listener);
+        try {
+            log.removeAbandonedCompactions();
+            FileLock lock = log.lockChannel.lock();
+            try (lock) {
+                log.recover();
+            }
+        } catch (IOException | RuntimeException exception) {
+            log.close();
+            throw exception;
+        }
+        return log;
+    }
+
+    /**
+     * Replays frames written by other processes since the last call. When nothing changed this is
+     * a single read of the shared generation counter.
+     */
+    void refresh() throws IOException {
+        if (generation.current() == seenGeneration) {
+            return;
+        }
+        synchronized (this) {
+            FileLock lock = lockChannel.lock();
+            try (lock) {
+                catchUp(false);
+            }
+        }
+    }
+
+    synchronized RecordLocation append(byte[] payload) throws IOException {
+        return append(List.of(payload)).get(0);
+    }
+
+    synchronized List<RecordLocation> append(List<byte[]> payloads) throws IOException {
+        return append(() -> payloads);
+    }
+
+    /**
+     * Appends the payloads produced by {@code source} as consecutive frames with a single write.
+     * The source runs under the store lock after this process has caught up with every other
+     * writer, so whatever it derives from the current state cannot be overtaken before it lands.
+     * The frames always go to the same segment, which may therefore grow past
+     * {@code maxSegmentBytes} by up to one batch.
+     */
+    synchronized List<RecordLocation> append(PayloadSource source) throws IOException {
+        FileLock lock = lockChannel.lock();
+        try (lock) {
+            catchUp(true);
+            List<byte[]> payloads = source.payloads();
+            if (payloads.isEmpty()) {
+                return List.of();
+            }
+            int total = 0;
+            for (byte[] payload : payloads) {
+                total += FRAME_HEADER_BYTES + payload.length;
+            }
+            ByteBuffer frames = ByteBuffer.allocate(total);
+            for (byte[] payload : payloads) {
+                frames.putInt(payload.length).putInt(checksum(payload)).put(payload);
+            }
+            frames.flip();
+            Segment target = active;
+            long offset = tailOffset;
+            if (offset > HEADER_BYTES && offset + total > maxSegmentBytes) {
+                target = roll();
+                offset = HEADER_BYTES;
+            }
+            target.writeFully(frames, offset);
+            target.size(offset + total);
+            tail = target;
+            tailOffset = offset + total;
+            seenGeneration = generation.increment();
+            List<RecordLocation> locations = new ArrayList<>(payloads.size());
+            for (byte[] payload : payloads) {
+                int length = FRAME_HEADER_BYTES + payload.length;
+                RecordLocation location = new RecordLocation(target, offset, length);
+                listener.accept(location, ByteBuffer.wrap(payload));
+                locations.add(location);
+                offset += length;
+            }
+            return locations;
+        }
+    }
+
+    byte[] read(RecordLocation location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length());
+        location.segment().readFully(buffer, location.offset());
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length != location.length() - FRAME_HEADER_BYTES) {
+            throw new IOException("Frame length mismatch in " + location.segment() + " at offset "
+                    + location.offset());
+        }
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        if (checksum(payload) != checksum) {
+            throw new IOException("Checksum mismatch in " + location.segment() + " at offset "
+                    + location.offset());
+        }
+        return payload;
+    }
+
+    void sync() throws IOException {
+        active.force();
+    }
+
+    Segment active() {
+        return active;
+    }
+
+    List<Segment> segments() {
+        return segments;
+    }
+
+    synchronized List<Segment> sealedSegments() throws IOException {
+        FileLock lock = lockChannel.lock();
+        try (lock) {
+            catchUp(true);
+        }
+        return List.copyOf(segments.subList(0, segments.size() - 1));
+    }
+
+    long maxSegmentBytes() {
+        return maxSegmentBytes;
+    }
+
+    FileLock tryLockCompaction() throws IOException {
+        return compactionLockChannel.tryLock();
+    }
+
+    void scan(Segment segment, FrameVisitor visitor) throws IOException {
+        long end = segment.fileSize();
+        long position = readFrames(segment, HEADER_BYTES, end, visitor);
+        if (position != end) {
+            throw new IOException("Corrupt frame in " + segment + " at offset " + position);
+        }
+    }
+
+    FileChannel createCompactionTarget(Segment newest) throws IOException {
+        Path path = directory.resolve(segmentName(newest.id(), newest.generation() + 1) + TEMP_SUFFIX);
+        Files.deleteIfExists(path);
+        return createSegmentFile(path);
+    }
+
+    synchronized Segment install(List<Segment> replaced) throws IOException {
+        Segment newest = replaced.get(replaced.size() - 1);
+        String name = segmentName(newest.id(), newest.generation() + 1);
+        Path target = directory.resolve(name);
+        FileLock lock = lockChannel.lock();
+        try (lock) {
+            catchUp(false);
+            Files.move(directory.resolve(name + TEMP_SUFFIX), target, StandardCopyOption.ATOMIC_MOVE);
+            FileChannel channel = FileChannel.open(target, StandardOpenOption.READ);
+            Segment segment = new Segment(newest.id(), newest.generation() + 1, target, channel, channel.size());
+            List<Segment> updated = new ArrayList<>(segments);
+            int position = updated.indexOf(newest);
+            updated.removeAll(replaced);
+            updated.add(position - replaced.size() + 1, segment);
+            segments = updated;
+            for (Segment input : replaced) {
+                Files.deleteIfExists(input.path());
+            }
+            seenGeneration = generation.increment();
+            return segment;
+        }
+    }
+
+    void retire(List<Segment> replaced) throws IOException {
+        for (Segment segment : replaced) {
+            segment.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        List<Closeable> open = new ArrayList<>(segments);
+        open.addAll(retired);
+        open.add(generation);
+        open.add(compactionLockChannel);
+        open.add(lockChannel);
+        for (Closeable closeable : open) {
+            try {
+                closeable.close();
+            } catch (IOException exception) {
+                failure = exception;
+            }
+        }
+        segments = new ArrayList<>();
+        retired.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    static ByteBuffer frame(ByteBuffer payload) {
+        return ByteBuffer.allocate(FRAME_HEADER_BYTES + payload.remaining())
+                .putInt(payload.remaining())
+                .putInt(checksum(payload))
+                .put(payload.duplicate())
+                .flip();
+    }
+
+    private void recover() throws IOException {
+        List<SegmentName> names = listSegments();
+        SegmentName newestCompacted = null;
+        for (SegmentName name : names) {
+            if (name.generation() > 0) {
+                newestCompacted = name;
+            }
+        }
+        List<Segment> opened = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            SegmentName name = names.get(i);
+            if (newestCompacted != null && SEGMENT_ORDER.compare(name, newestCompacted) < 0) {
+                Files.deleteIfExists(name.path());
+                continue;
+            }
+            opened.add(openSegment(name, i == names.size() - 1));
+        }
+        if (opened.isEmpty() || opened.get(opened.size() - 1).generation() > 0) {
+            long nextId = opened.isEmpty() ? 1 : opened.get(opened.size() - 1).id() + 1;
+            opened.add(newSegment(nextId));
+        }
+        segments = opened;
+        active = opened.get(opened.size() - 1);
+        for (Segment segment : opened) {
+            verifyHeader(segment);
+        }
+        replayAll();
+        seenGeneration = generation.current();
+    }
+
+    /**
+     * Brings the listener up to date with the files on disk. The caller holds the monitor and the
+     * {@code LOCK} file lock, so nobody is appending while the tail is read. If another process
+     * has merged segments the whole log is replayed, since frame locations have moved.
+     */
+    private void catchUp(boolean verifyTail) throws IOException {
+        long current = generation.current();
+        if (current == seenGeneration && (!verifyTail || tail.fileSize() == tailOffset)) {
+            return;
+        }
+        boolean merged = reconcile();
+        int start = segments.indexOf(tail);
+        if (merged || start < 0) {
+            for (Segment segment : segments) {
+                segment.resetDeadBytes();
+            }
+            replayAll();
+            for (Segment segment : retired) {
+                segment.close();
+            }
+            retired.clear();
+        } else {
+            long offset = tailOffset;
+            for (Segment segment : segments.subList(start, segments.size())) {
+                replayFrom(segment, segment == tail ? offset : HEADER_BYTES);
+            }
+        }
+        seenGeneration = current;
+    }
+
+    /**
+     * Replays every segment from the start, bracketed by {@link ReplayListener#reset()} and
+     * {@link ReplayListener#replayed()}. Segments whose listener visitor is not the listener itself
+     * are read in parallel, one thread per segment up to the number of processors.
+     */
+    private void replayAll() throws IOException {
+        listener.reset();
+        List<Segment> all = segments;
+        List<FrameVisitor> visitors = new ArrayList<>(all.size());
+        for (Segment segment : all) {
+            visitors.add(listener.segment(segment));
+        }
+        int threads = Math.min(all.size(), Runtime.getRuntime().availableProcessors());
+        if (threads < 2 || visitors.contains(listener)) {
+            for (int i = 0; i < all.size(); i++) {
+                Segment segment = all.get(i);
+                settle(segment, readFrames(segment, HEADER_BYTES, segment.fileSize(), visitors.get(i)));
+            }
+        } else {
+            long[] positions = readInParallel(all, visitors, threads);
+            for (int i = 0; i < all.size(); i++) {
+                settle(all.get(i), positions[i]);
+            }
+        }
+        listener.replayed();
+    }
+
+    private static long[] readInParallel(List<Segment> all, List<FrameVisitor> visitors, int threads)
+            throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "vault-segment-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Long>> reads = new ArrayList<>(all.size());
+            for (int i = 0; i < all.size(); i++) {
+                Segment segment = all.get(i);
+                FrameVisitor visitor = visitors.get(i);
+                reads.add(pool.submit(() -> readFrames(segment, HEADER_BYTES, segment.fileSize(), visitor)));
+            }
+            long[] positions = new long[all.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = reads.get(i).get();
+            }
+            return positions;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading the store");
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void replayFrom(Segment segment, long start) throws IOException {
+        settle(segment, readFrames(segment, start, segment.fileSize(), listener));
+    }
+
+    /**
+     * Records that {@code segment} was read up to {@code position}, dropping a torn write at the
+     * end of the newest segment. Anything unreadable in a sealed segment is corruption.
+     */
+    private void settle(Segment segment, long position) throws IOException {
+        boolean newest = segment == active;
+        long size = segment.fileSize();
+        if (position != size) {
+            if (!newest) {
+                throw new IOException("Corrupt frame in sealed segment " + segment + " at offset " + position);
+            }
+            segment.truncate(position);
+        }
+        segment.size(position);
+        tail = segment;
+        tailOffset = position;
+    }
+
+    private void verifyHeader(Segment segment) throws IOException {
+        if (segment.fileSize() < HEADER_BYTES) {
+            if (segment != active) {
+                throw new IOException("Segment " + segment + " is missing its header");
+            }
+            segment.truncate(0);
+            segment.writeFully(header(), 0);
+            segment.force();
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        segment.readFully(header, 0);
+        if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+            throw new IOException("Unrecognized segment header in " + segment);
+        }
+    }
+
+    /**
+     * Re-reads the directory listing, opening segments created by other processes. Returns
+     * whether any known segment has disappeared, which only happens when another process merged
+     * it away.
+     */
+    private boolean reconcile() throws IOException {
+        Map<Path, Segment> known = new HashMap<>();
+        for (Segment segment : segments) {
+            known.put(segment.path(), segment);
+        }
+        List<SegmentName> names = listSegments();
+        List<Segment> current = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            SegmentName name = names.get(i);
+            Segment segment = known.remove(name.path());
+            if (segment == null) {
+                try {
+                    segment = openSegment(name, i == names.size() - 1);
+                    verifyHeader(segment);
+                } catch (NoSuchFileException exception) {
+                    continue;
+                }
+            }
+            current.add(segment);
+        }
+        retired.addAll(known.values());
+        segments = current;
+        active = current.get(current.size() - 1);
+        return !known.isEmpty();
+    }
+
+    private Segment roll() throws IOException {
+        active.force();
+        Segment next = newSegment(active.id() + 1);
+        List<Segment> updated = new ArrayList<>(segments);
+        updated.add(next);
+        segments = updated;
+        active = next;
+        return next;
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        Path path = directory.resolve(segmentName(id, 0));
+        FileChannel channel = createSegmentFile(path);
+        channel.force(true);
+        return new Segment(id, 0, path, channel, HEADER_BYTES);
+    }
+
+    private Segment openSegment(SegmentName name, boolean writable) throws IOException {
+        FileChannel channel = writable
+                ? FileChannel.open(name.path(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(name.path(), StandardOpenOption.READ);
+        return new Segment(name.id(), name.generation(), name.path(), channel, 0);
+    }
+
+    private void removeAbandonedCompactions() throws IOException {
+        try (FileLock lock = compactionLockChannel.tryLock()) {
+            if (lock == null) {
+                return;
+            }
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + TEMP_SUFFIX)) {
+                for (Path entry : entries) {
+                    Files.deleteIfExists(entry);
+                }
+            }
+        }
+    }
+
+    private List<SegmentName> listSegments() throws IOException {
+        List<SegmentName> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path entry : entries) {
+                Matcher matcher = SEGMENT_NAME.matcher(entry.getFileName().toString());
+                if (matcher.matches()) {
+                    names.add(new SegmentName(Long.parseLong(matcher.group(1), 16),
+                            Integer.parseInt(matcher.group(2)), entry));
+                }
+            }
+        }
+        names.sort(SEGMENT_ORDER);
+        return names;
+    }
+
+    private static FileChannel createSegmentFile(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = header();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        return channel;
+    }
+
+    private static ByteBuffer header() {
+        return ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+    }
+
+    private static String segmentName(long id, int generation) {
+        return String.format("%016x-%d.seg", id, generation);
+    }
+
+    /**
+     * Hands every intact frame between {@code start} and {@code end} to {@code visitor} and
+     * returns the offset just past the last one. Frames are read in large chunks into one buffer
+     * and passed on as slices of it, so a payload is only valid during its call.
+     */
+    private static long readFrames(Segment segment, long start, long end, FrameVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK_BYTES).limit(0);
+        long position = start;
+        while (position + FRAME_HEADER_BYTES <= end) {
+            if (buffer.remaining() < FRAME_HEADER_BYTES) {
+                buffer = fill(segment, buffer, position, end, FRAME_HEADER_BYTES);
+            }
+            int length = buffer.getInt(buffer.position());
+            if (length < 0 || position + FRAME_HEADER_BYTES + length > end) {
+                break;
+            }
+            int frameLength = FRAME_HEADER_BYTES + length;
+            if (buffer.remaining() < frameLength) {
+                buffer = fill(segment, buffer, position, end, frameLength);
+            }
+            int checksum = buffer.getInt(buffer.position() + Integer.BYTES);
+            ByteBuffer payload = buffer.slice(buffer.position() + FRAME_HEADER_BYTES, length);
+            if (checksum(payload) != checksum) {
+                break;
+            }
+            visitor.accept(new RecordLocation(segment, position, frameLength), payload);
+            buffer.position(buffer.position() + frameLength);
+            position += frameLength;
+        }
+        return position;
+    }
+
+    /**
+     * Keeps the unread bytes of {@code buffer}, which start at file offset {@code position}, and
+     * reads on until at least {@code needed} bytes are available, growing the buffer if it is too
+     * small to hold them.
+     */
+    private static ByteBuffer fill(Segment segment, ByteBuffer buffer, long position, long end, int needed)
+            throws IOException {
+        ByteBuffer target = buffer;
+        if (target.capacity() < needed) {
+            target = ByteBuffer.allocate(Math.max(needed, target.capacity() * 2)).put(buffer);
+        } else {
+            target.compact();
+        }
+        long held = target.position();
+        target.limit((int) Math.min(target.capacity(), end - position));
+        segment.readFully(target, position + held);
+        return target;
+    }
+
+    private static int checksum(byte[] payload) {
+        return checksum(ByteBuffer.wrap(payload));
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private record SegmentName(long id, int generation, Path path) {
+    }
+
+    interface PayloadSource {
+        List<byte[]> payloads() throws IOException;
+    }
+
+    interface FrameVisitor {
+        /**
+         * Receives one frame; {@code payload} may be a slice of a shared read buffer and must not
+         * be kept after the call returns.
+         */
+        void accept(RecordLocation location, ByteBuffer payload) throws IOException;
+    }
+
+    /**
+     * Receives every frame in log order. A full replay, when the log is opened or after another
+     * process merged segments, is bracketed by {@link #reset()} and {@link #replayed()}.
+     */
+    interface ReplayListener extends FrameVisitor {
+        default void reset() {
+        }
+
+        /**
+         * Where a full replay sends the frames of {@code segment}, asked for each segment in log
+         * order. By default that is the listener itself and segments are read one after another;
+         * a listener returning visitors of its own has the segments read concurrently, each by a
+         * single thread, and puts their results in order in {@link #replayed()}.
+         */
+        default FrameVisitor segment(Segment segment) {
+            return this;
+        }
+
+        default void replayed() {
+        }
+    }
+}
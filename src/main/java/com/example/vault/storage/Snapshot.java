@@ -0,0 +1,200 @@
+package com.example.vault.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * The stream format of {@link SecretRepository#backup}: a header, then frames until an end frame.
+ *
+ * <pre>
+ * header  "VAULTSNP", u16 format version (1)
+ * frame   byte kind, int payload length, int CRC32C of kind, length and payload, payload
+ *
+ * ENTRIES a {@link LogEntry#encodeBatch batch} of log entries: the first frame holds the
+ *         store metadata, later ones {@link LogEntry.Put} entries for latest versions and
+ *         {@link LogEntry.Version} entries for archived ones
+ * BLOB    u8 id length, the blob id, byte 1 on the last piece of the file and 0 before, then
+ *         the next piece of the sealed blob file; a blob comes before the entries that use it
+ * END     long entries, long blob files, long frames before this one
+ * </pre>
+ *
+ * Entries keep the layout of the log, so a snapshot holds secrets exactly as sealed in the store:
+ * encrypted under their DEKs, with the DEKs wrapped by the master key. The checksums and the
+ * counts of the end frame catch a damaged or truncated snapshot; tampering with a secret is
+ * caught by its own authentication tag when it is read.
+ */
+final class Snapshot {
+    static final byte ENTRIES = 1;
+    static final byte BLOB = 2;
+    static final byte END = 3;
+    static final int BLOB_PIECE_BYTES = 1024 * 1024;
+
+    private static final byte[] MAGIC = "VAULTSNP".getBytes(StandardCharsets.US_ASCII);
+    private static final short FORMAT = 1;
+    private static final int FRAME_HEADER_BYTES = 9;
+    private static final int MAX_PAYLOAD_BYTES = 256 * 1024 * 1024;
+
+    private Snapshot() {
+    }
+
+    static final class Writer {
+        private final WritableByteChannel target;
+        private long entries;
+        private long blobs;
+        private long frames;
+
+        Writer(WritableByteChannel target) throws IOException {
+            this.target = target;
+            writeFully(ByteBuffer.allocate(MAGIC.length + Short.BYTES).put(MAGIC).putShort(FORMAT).flip());
+        }
+
+        void entries(byte[] batch, int count) throws IOException {
+            frame(ENTRIES, ByteBuffer.wrap(batch));
+            entries += count;
+        }
+
+        /**
+         * Copies the sealed file of blob {@code id} from {@code source} as one or more frames.
+         */
+        void blob(String id, ReadableByteChannel source) throws IOException {
+            byte[] name = id.getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer piece = ByteBuffer.allocate(1 + name.length + 1 + BLOB_PIECE_BYTES);
+            ByteBuffer next = ByteBuffer.allocate(BLOB_PIECE_BYTES);
+            fill(source, next);
+            boolean last;
+            do {
+                next.flip();
+                piece.clear().put((byte) name.length).put(name).put((byte) 0).put(next);
+                next.clear();
+                fill(source, next);
+                last = next.position() == 0;
+                piece.put(1 + name.length, (byte) (last ? 1 : 0));
+                frame(BLOB, piece.flip());
+            } while (!last);
+            blobs++;
+        }
+
+        void finish() throws IOException {
+            frame(END, ByteBuffer.allocate(3 * Long.BYTES).putLong(entries).putLong(blobs).putLong(frames).flip());
+        }
+
+        long entries() {
+            return entries;
+        }
+
+        private void frame(byte kind, ByteBuffer payload) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES).put(kind).putInt(payload.remaining());
+            header.putInt(checksum(header.array(), payload)).flip();
+            writeFully(header);
+            writeFully(payload);
+            frames++;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+        }
+    }
+
+    static final class Reader {
+        private final ReadableByteChannel source;
+        private final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        private long frames;
+        private boolean ended;
+
+        Reader(ReadableByteChannel source) throws IOException {
+            this.source = source;
+            ByteBuffer start = ByteBuffer.allocate(MAGIC.length + Short.BYTES);
+            readFully(start);
+            byte[] magic = Arrays.copyOf(start.array(), MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a vault snapshot");
+            }
+            short format = start.getShort(MAGIC.length);
+            if (format != FORMAT) {
+                throw new IOException("Unsupported snapshot format: " + format);
+            }
+        }
+
+        /**
+         * The next frame, checksum verified, or {@code null} after the end frame. The end frame
+         * itself is checked against {@code entries} and {@code blobs}, the totals the caller read.
+         */
+        Frame next(long entries, long blobs) throws IOException {
+            if (ended) {
+                return null;
+            }
+            header.clear();
+            readFully(header);
+            byte kind = header.get(0);
+            int length = header.getInt(1);
+            if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+                throw new IOException("Corrupt snapshot frame " + frames + ": length " + length);
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload);
+            if (checksum(header.array(), payload) != header.getInt(5)) {
+                throw new IOException("Corrupt snapshot frame " + frames + ": checksum mismatch");
+            }
+            if (kind == END) {
+                if (payload.getLong(0) != entries || payload.getLong(8) != blobs || payload.getLong(16) != frames) {
+                    throw new IOException("Snapshot is incomplete: expected " + payload.getLong(0) + " entries and "
+                            + payload.getLong(8) + " blobs, read " + entries + " and " + blobs);
+                }
+                if (source.read(ByteBuffer.allocate(1)) > 0) {
+                    throw new IOException("Snapshot has data after its end frame");
+                }
+                ended = true;
+                return null;
+            }
+            if (kind != ENTRIES && kind != BLOB) {
+                throw new IOException("Unknown snapshot frame kind: " + kind);
+            }
+            frames++;
+            return new Frame(kind, payload);
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            fill(source, buffer);
+            if (buffer.hasRemaining()) {
+                throw new EOFException("Snapshot is truncated after frame " + frames);
+            }
+            buffer.flip();
+        }
+    }
+
+    record Frame(byte kind, ByteBuffer payload) {
+        String blobId() {
+            int length = Byte.toUnsignedInt(payload.get(0));
+            return new String(payload.array(), 1, length, StandardCharsets.US_ASCII);
+        }
+
+        boolean lastPiece() {
+            return payload.get(1 + Byte.toUnsignedInt(payload.get(0))) == 1;
+        }
+
+        ByteBuffer blobData() {
+            return payload.duplicate().position(2 + Byte.toUnsignedInt(payload.get(0)));
+        }
+    }
+
+    private static int checksum(byte[] header, ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(header, 0, 1 + Integer.BYTES);
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static void fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && source.read(buffer) >= 0) {
+            // Keep reading until the buffer is full or the source is exhausted.
+        }
+    }
+}
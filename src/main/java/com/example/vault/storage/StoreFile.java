@@ -2,7 +2,6 @@ package com.example.vault.storage;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Properties;
@@ -20,14 +19,4 @@ public final class StoreFile {
         }
         return properties;
     }
-
-    public static void save(Path storePath, Properties properties) throws IOException {
-        Path parent = storePath.getParent();
-        if (parent != null) {
-            Files.createDirectories(parent);
-        }
-        try (OutputStream output = Files.newOutputStream(storePath)) {
-            properties.store(output, "Secret Store");
-        }
-    }
 }
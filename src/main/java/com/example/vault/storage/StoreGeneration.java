@@ -0,0 +1,57 @@
+package com.example.vault.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Change counter shared by every process that has the store open. The counter lives in a
+ * memory-mapped file, so checking whether another process has written costs one volatile memory
+ * read and no system call.
+ */
+final class StoreGeneration implements Closeable {
+    private static final VarHandle COUNTER =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private StoreGeneration(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static StoreGeneration open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < Long.BYTES) {
+                channel.write(ByteBuffer.allocate(Long.BYTES), 0);
+            }
+            return new StoreGeneration(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES));
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    long current() {
+        return (long) COUNTER.getVolatile(buffer, 0);
+    }
+
+    long increment() {
+        return (long) COUNTER.getAndAdd(buffer, 0, 1L) + 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.vault.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * One-time conversion of a legacy {@code secrets.properties} file into a segment log directory at
+ * the same path. The log is built in a staging directory and swapped in with two renames, so an
+ * interrupted migration is either redone from the untouched properties file or finished on the
+ * next open.
+ */
+final class StoreMigration {
+    private static final String SECRET_PREFIX = "secret.";
+    private static final String PATH_SUFFIX = ".path";
+
+    private StoreMigration() {
+    }
+
+    static void migrateIfNeeded(Path storePath) throws IOException {
+        Path staging = sibling(storePath, ".migrating");
+        Path backup = sibling(storePath, ".migrated");
+        if (Files.isRegularFile(storePath)) {
+            deleteRecursively(staging);
+            Properties legacy = StoreFile.load(storePath);
+            try (SegmentLog log = SegmentLog.open(staging, SegmentLog.DEFAULT_MAX_SEGMENT_BYTES,
+                    (location, payload) -> {
+                    })) {
+                for (LogEntry entry : convert(legacy)) {
+                    log.append(entry.encode());
+                }
+                log.sync();
+            }
+            Files.move(storePath, backup, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(staging, storePath, StandardCopyOption.ATOMIC_MOVE);
+        } else if (Files.notExists(storePath) && Files.isDirectory(staging) && Files.exists(backup)) {
+            Files.move(staging, storePath, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    static List<LogEntry> convert(Properties legacy) {
+        List<LogEntry> entries = new ArrayList<>();
+        for (String key : legacy.stringPropertyNames()) {
+            if (!key.startsWith(SECRET_PREFIX)) {
+                entries.add(new LogEntry.Metadata(key, legacy.getProperty(key)));
+                continue;
+            }
+            if (!key.endsWith(PATH_SUFFIX)) {
+                continue;
+            }
+            String baseKey = key.substring(0, key.length() - "path".length());
+            if (legacy.getProperty(baseKey + "ciphertext") == null) {
+                continue;
+            }
+            entries.add(new LogEntry.Put(new SecretRecord(
+                    legacy.getProperty(key),
+                    decode(legacy, baseKey + "encryptedDek"),
+                    decode(legacy, baseKey + "dekIv"),
+                    decode(legacy, baseKey + "secretIv"),
+                    decode(legacy, baseKey + "ciphertext"),
+                    Integer.parseInt(legacy.getProperty(baseKey + "version", "1")),
+                    timestamp(legacy, baseKey + "createdAt"),
+                    timestamp(legacy, baseKey + "updatedAt"))));
+        }
+        return entries;
+    }
+
+    private static Instant timestamp(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        return value == null ? null : Instant.parse(value);
+    }
+
+    private static byte[] decode(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return new byte[0];
+        }
+        return Base64.getDecoder().decode(value);
+    }
+
+    private static Path sibling(Path storePath, String suffix) {
+        return storePath.resolveSibling(storePath.getFileName() + suffix);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (Files.notExists(directory)) {
+            return;
+        }
+        try (Stream<Path> entries = Files.walk(directory)) {
+            for (Path entry : entries.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(entry);
+            }
+        }
+    }
+}
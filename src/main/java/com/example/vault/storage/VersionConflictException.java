@@ -0,0 +1,32 @@
+package com.example.vault.storage;
+
+/**
+ * A conditional write found the secret at another version than the writer expected; version 0
+ * stands for no secret at the path.
+ */
+public class VersionConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final int expectedVersion;
+    private final int actualVersion;
+
+    public VersionConflictException(String path, int expectedVersion, int actualVersion) {
+        super("Version conflict at " + path + ": expected version " + expectedVersion + ", found " + actualVersion);
+        this.path = path;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public int expectedVersion() {
+        return expectedVersion;
+    }
+
+    public int actualVersion() {
+        return actualVersion;
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.vault.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+
+/**
+ * Superseded versions of secrets, kept in a segment log of their own under {@code history/} in
+ * the store directory so they never enter the resident index or the replay of the main log. Only
+ * the location of each version is held in memory; its record is read from disk when asked for.
+ *
+ * <p>The log is opened the first time it is needed: when a version has to be archived, or when
+ * the directory already exists and history is read or pruned. Versions beyond the retention of
+ * their path are dropped with a delete frame per version as new ones arrive, and the history
+ * log's own {@link Compactor} reclaims their space.
+ */
+final class VersionHistory implements Closeable {
+    static final String DIRECTORY = "history";
+
+    private static final int REWRAP_CHUNK_PATHS = 1024;
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private SegmentLog log;
+    private Compactor compactor;
+    private volatile PathIndex<List<Archived>> index = PathIndex.empty();
+    private PathIndex<List<Archived>> rebuilding;
+
+    VersionHistory(Path storePath, long maxSegmentBytes) {
+        this.directory = storePath.resolve(DIRECTORY);
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Archives the records superseded by one group of writes and prunes every path they touch
+     * down to its retention; a deleted secret loses its whole history. The frames are durable
+     * when this returns, so it runs before the group itself is appended.
+     */
+    void archive(List<Change> changes, ToIntFunction<String> retention) throws IOException {
+        boolean archiving = false;
+        for (Change change : changes) {
+            archiving |= !change.deleted() && retention.applyAsInt(change.previous().path()) > 0;
+        }
+        SegmentLog history = opened(archiving);
+        if (history == null) {
+            return;
+        }
+        if (!history.append(() -> encode(changes, retention)).isEmpty()) {
+            history.sync();
+            compactor.maybeSchedule(history.segments());
+        }
+    }
+
+    /**
+     * The archived versions of {@code path}, oldest first.
+     */
+    List<Integer> versions(String path) throws IOException {
+        SegmentLog history = opened(false);
+        if (history == null) {
+            return List.of();
+        }
+        history.refresh();
+        return indexedVersions(path);
+    }
+
+    Optional<SecretRecord> read(String path, int version) throws IOException {
+        SegmentLog history = opened(false);
+        if (history == null) {
+            return Optional.empty();
+        }
+        history.refresh();
+        try {
+            return readIndexed(history, path, version);
+        } catch (ClosedChannelException exception) {
+            // The segment was merged away after the lookup; the index now points at its copy.
+            return readIndexed(history, path, version);
+        }
+    }
+
+    /**
+     * Rewrites every archived version that {@code journal} holds a new wrapping for. Each chunk of
+     * paths is read and rewritten under the history log's lock, so a version pruned in the
+     * meantime is not brought back; versions that already carry their new wrapping are skipped, so
+     * running this again after an interruption only writes what is left.
+     */
+    void rewrap(RewrapJournal journal) throws IOException {
+        SegmentLog history = opened(false);
+        if (history == null) {
+            return;
+        }
+        history.refresh();
+        List<String> paths = index.list("");
+        boolean written = false;
+        for (int start = 0; start < paths.size(); start += REWRAP_CHUNK_PATHS) {
+            List<String> chunk = paths.subList(start, Math.min(paths.size(), start + REWRAP_CHUNK_PATHS));
+            written |= !history.append(() -> encodeRewrapped(history, chunk, journal)).isEmpty();
+        }
+        if (written) {
+            history.sync();
+            compactor.maybeSchedule(history.segments());
+        }
+    }
+
+    /**
+     * Appends {@code versions}, archived versions read back from a snapshot, as they are, in one
+     * write of a frame each. Meant for a store being restored, which has no history of its own.
+     */
+    void restore(List<SecretRecord> versions) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(versions.size());
+        for (SecretRecord version : versions) {
+            payloads.add(new LogEntry.Version(version).encode());
+        }
+        SegmentLog history = opened(true);
+        history.append(payloads);
+        history.sync();
+        compactor.maybeSchedule(history.segments());
+    }
+
+    /**
+     * Whether anything has ever been archived in this store.
+     */
+    boolean exists() {
+        return Files.isDirectory(directory);
+    }
+
+    @Override
+    public void close() throws IOException {
+        SegmentLog opened;
+        Compactor merging;
+        synchronized (this) {
+            opened = log;
+            merging = compactor;
+        }
+        if (opened != null) {
+            merging.close();
+            opened.close();
+        }
+    }
+
+    private Optional<SecretRecord> readIndexed(SegmentLog history, String path, int version) throws IOException {
+        List<Archived> versions = index.get(path);
+        if (versions != null) {
+            for (Archived archived : versions) {
+                if (archived.version() == version) {
+                    LogEntry entry = LogEntry.decode(history.read(archived.location()));
+                    return Optional.of(((LogEntry.Version) entry).record());
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private synchronized SegmentLog opened(boolean create) throws IOException {
+        if (log == null && (create || Files.isDirectory(directory))) {
+            log = SegmentLog.open(directory, maxSegmentBytes, new SegmentLog.ReplayListener() {
+                @Override
+                public void accept(RecordLocation location, ByteBuffer payload) throws IOException {
+                    apply(location, payload);
+                }
+
+                @Override
+                public void reset() {
+                    rebuilding = PathIndex.empty();
+                }
+
+                @Override
+                public void replayed() {
+                    index = rebuilding;
+                    rebuilding = null;
+                }
+            });
+            compactor = new Compactor(log, this::relocated);
+            compactor.maybeSchedule(log.segments());
+        }
+        return log;
+    }
+
+    /**
+     * Builds the frames for {@code changes} against the index, which is current because this runs
+     * under the history log's lock after catching up.
+     */
+    private List<byte[]> encode(List<Change> changes, ToIntFunction<String> retention) {
+        Map<String, List<Integer>> kept = new HashMap<>();
+        List<byte[]> payloads = new ArrayList<>();
+        for (Change change : changes) {
+            SecretRecord previous = change.previous();
+            String path = previous.path();
+            List<Integer> versions = kept.computeIfAbsent(path, this::indexedVersions);
+            int limit = change.deleted() ? 0 : retention.applyAsInt(path);
+            if (limit > 0) {
+                payloads.add(new LogEntry.Version(previous).encode());
+                versions.remove(Integer.valueOf(previous.version()));
+                versions.add(previous.version());
+                versions.sort(null);
+            }
+            while (versions.size() > limit) {
+                payloads.add(new LogEntry.Delete(LogEntry.Version.key(path, versions.remove(0))).encode());
+            }
+        }
+        return payloads;
+    }
+
+    private List<byte[]> encodeRewrapped(SegmentLog history, List<String> paths, RewrapJournal journal)
+            throws IOException {
+        List<byte[]> payloads = new ArrayList<>();
+        for (String path : paths) {
+            List<Archived> versions = index.get(path);
+            if (versions == null) {
+                continue;
+            }
+            for (Archived archived : versions) {
+                SecretRecord record = ((LogEntry.Version) LogEntry.decode(history.read(archived.location()))).record();
+                SecretRecord rewrapped = journal.rewrapped(record);
+                if (rewrapped != null && !Arrays.equals(rewrapped.dekIv(), record.dekIv())) {
+                    payloads.add(new LogEntry.Version(rewrapped).encode());
+                }
+            }
+        }
+        return payloads;
+    }
+
+    private List<Integer> indexedVersions(String path) {
+        List<Integer> versions = new ArrayList<>();
+        List<Archived> archived = index.get(path);
+        if (archived != null) {
+            for (Archived entry : archived) {
+                versions.add(entry.version());
+            }
+        }
+        return versions;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private synchronized void apply(RecordLocation location, ByteBuffer payload) throws IOException {
+        PathIndex<List<Archived>>[] current = new PathIndex[] {rebuilding != null ? rebuilding : index};
+        LogEntry.forEach(location, payload, (entryLocation, entry, encoded) -> {
+            if (entry instanceof LogEntry.Version version) {
+                SecretRecord record = version.record();
+                current[0] = replace(current[0], record.path(), record.version(), entryLocation);
+            } else {
+                entryLocation.segment().markDead(entryLocation.length());
+                current[0] = replace(current[0], LogEntry.Version.path(entry.key()),
+                        LogEntry.Version.version(entry.key()), null);
+            }
+        });
+        if (rebuilding != null) {
+            rebuilding = current[0];
+        } else {
+            index = current[0];
+        }
+    }
+
+    private synchronized boolean relocated(Compactor.EntryKey key, RecordLocation from, RecordLocation to) {
+        String path = LogEntry.Version.path(key.name());
+        int version = LogEntry.Version.version(key.name());
+        List<Archived> versions = index.get(path);
+        if (versions == null || !versions.contains(new Archived(version, from))) {
+            return false;
+        }
+        List<Archived> moved = new ArrayList<>(versions);
+        moved.set(moved.indexOf(new Archived(version, from)), new Archived(version, to));
+        index = index.with(path, List.copyOf(moved));
+        return true;
+    }
+
+    /**
+     * Returns {@code history} with {@code version} of {@code path} stored at {@code location}, or
+     * dropped when the location is {@code null}; whatever it replaces is marked dead.
+     */
+    private static PathIndex<List<Archived>> replace(PathIndex<List<Archived>> history, String path, int version,
+            RecordLocation location) {
+        List<Archived> versions = new ArrayList<>();
+        List<Archived> existing = history.get(path);
+        if (existing != null) {
+            for (Archived archived : existing) {
+                if (archived.version() == version) {
+                    archived.location().segment().markDead(archived.location().length());
+                } else {
+                    versions.add(archived);
+                }
+            }
+        }
+        if (location != null) {
+            versions.add(new Archived(version, location));
+            versions.sort((left, right) -> Integer.compare(left.version(), right.version()));
+        }
+        return versions.isEmpty() ? history.without(path) : history.with(path, List.copyOf(versions));
+    }
+
+    /**
+     * A record replaced or deleted by a write of the current group.
+     */
+    record Change(SecretRecord previous, boolean deleted) {
+    }
+
+    private record Archived(int version, RecordLocation location) {
+    }
+}